@@ -0,0 +1 @@
+@java -cp dist/lib/historadar.jar org.matracas.historadar.Batch %*
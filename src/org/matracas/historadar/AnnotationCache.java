@@ -0,0 +1,294 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.matracas.historadar.nlp.OCR;
+import org.matracas.historadar.nlp.Metadata;
+import org.matracas.historadar.nlp.NER;
+
+/**
+ * Persistent cache of annotation results.
+ *
+ * Each entry holds the metadata and segments of one document,
+ * encoded with {@link SegmentCodec}, and is named after a SHA-1 hash of the document file content
+ * and of the classes and configuration of the annotators.
+ * Changing a document or the tagger gives a different key,
+ * so stale entries are never used.
+ * The metadata is also stored on its own, under a key that does not
+ * depend on the tagger, see {@link #keys(Document, OCR, Metadata, NER)}.
+ */
+public class AnnotationCache
+{
+    /**
+     * Name of the cache directory created by default
+     * inside the collection directory.
+     */
+    public static final String DEFAULT_DIRECTORY = ".historadar-cache";
+    
+    protected static final String EXTENSION = ".segments";
+    
+    protected File directory;
+    protected AtomicInteger hits, misses;
+    protected AtomicInteger metadataHits, metadataMisses;
+    
+    /**
+     * Use the given directory for the cache, creating it if needed.
+     *
+     * @param directory where the cache entries are stored
+     */
+    public AnnotationCache(File directory) throws java.io.IOException
+    {
+        if (! directory.isDirectory() && ! directory.mkdirs()) {
+            throw new java.io.IOException("Can not create cache directory: " + directory);
+        }
+        this.directory = directory;
+        hits   = new AtomicInteger(0);
+        misses = new AtomicInteger(0);
+        metadataHits   = new AtomicInteger(0);
+        metadataMisses = new AtomicInteger(0);
+    }
+    
+    public File getDirectory()
+    {
+        return directory;
+    }
+    
+    /**
+     * Compute the cache key for a document annotated with the given tools.
+     *
+     * @return hexadecimal hash string
+     */
+    public String key(Document document, OCR ocr, Metadata metadata, NER tagger)
+        throws java.io.IOException
+    {
+        return keys(document, ocr, metadata, tagger)[1];
+    }
+    
+    /**
+     * Compute the cache keys for the two parts of the annotation
+     * of a document: the metadata, which depends only on the document
+     * and the OCR and metadata tools, and the named entities, which
+     * also depend on the tagger.
+     * Keeping them apart lets a change of tagger reuse the metadata.
+     *
+     * @return hexadecimal hash strings for the metadata and for the entities,
+     *         the second one the same as {@link #key(Document, OCR, Metadata, NER)}
+     */
+    public String[] keys(Document document, OCR ocr, Metadata metadata, NER tagger)
+        throws java.io.IOException
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (java.security.NoSuchAlgorithmException e) {
+            throw new java.io.IOException("SHA-1 not available: " + e);
+        }
+        
+        File file = document.getFile();
+        if (file != null) {
+            FileInputStream input = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[65536];
+                int count;
+                while ((count = input.read(buffer)) > 0) digest.update(buffer, 0, count);
+            }
+            finally {
+                input.close();
+            }
+        }
+        else {
+            digest.update(document.getText().toString().getBytes("UTF-8"));
+        }
+        digest.update(document.getCharset().name().getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(ocr.getClass().getName().getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(metadata.getClass().getName().getBytes("UTF-8"));
+        
+        MessageDigest taggerDigest;
+        try {
+            taggerDigest = (MessageDigest) digest.clone();
+        }
+        catch (CloneNotSupportedException e) {
+            throw new java.io.IOException("SHA-1 can not be cloned: " + e);
+        }
+        taggerDigest.update((byte) 0);
+        taggerDigest.update(tagger.getClass().getName().getBytes("UTF-8"));
+        taggerDigest.update((byte) 0);
+        taggerDigest.update(tagger.getConfiguration().getBytes("UTF-8"));
+        
+        return new String[] { hex(digest.digest()), hex(taggerDigest.digest()) };
+    }
+    
+    protected static String hex(byte[] bytes)
+    {
+        StringBuilder key = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16));
+            key.append(Character.forDigit(b & 0xF, 16));
+        }
+        
+        return key.toString();
+    }
+    
+    /**
+     * Look up an entry, counting it as a hit or a miss.
+     *
+     * @param key from {@link #key(Document, OCR, Metadata, NER)}
+     * @return the cached annotations, or <code>null</code> if not found
+     */
+    public AnnotationFile get(String key)
+    {
+        return get(key, hits, misses);
+    }
+    
+    /**
+     * Look up the metadata stored on its own, counting it apart from
+     * the entries with segments, since it is only looked for after
+     * one of those was missing.
+     *
+     * @param key the first of {@link #keys(Document, OCR, Metadata, NER)}
+     * @return the cached annotations, or <code>null</code> if not found
+     */
+    public AnnotationFile getMetadata(String key)
+    {
+        return get(key, metadataHits, metadataMisses);
+    }
+    
+    protected AnnotationFile get(String key, AtomicInteger hits, AtomicInteger misses)
+    {
+        File file = new File(directory, key + EXTENSION);
+        if (file.exists()) {
+            try {
+                AnnotationFile annotations = read(file);
+                hits.incrementAndGet();
+                
+                return annotations;
+            }
+            catch (java.io.IOException e) {
+                System.err.println("Error: discarding cache entry: " + e);
+                file.delete();
+            }
+        }
+        misses.incrementAndGet();
+        
+        return null;
+    }
+    
+    /**
+     * Store an entry.
+     *
+     * It is written to a temporary file first and then renamed,
+     * so that readers never see incomplete entries.
+     *
+     * @param key from {@link #key(Document, OCR, Metadata, NER)}
+     * @param annotations the annotations to store
+     */
+    public void put(String key, AnnotationFile annotations) throws java.io.IOException
+    {
+        File file = new File(directory, key + EXTENSION);
+        File temporary = File.createTempFile(key, ".tmp", directory);
+        try {
+            write(temporary, annotations);
+            if (! temporary.renameTo(file)) {
+                file.delete();
+                if (! temporary.renameTo(file)) {
+                    throw new java.io.IOException("Can not write cache entry " + file);
+                }
+            }
+        }
+        finally {
+            temporary.delete();
+        }
+    }
+    
+    protected static void write(File file, AnnotationFile annotations) throws java.io.IOException
+    {
+        SegmentCodec.Writer writer = new SegmentCodec.Writer(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            writer.writeString(annotations.getIdentifier());
+            writer.write(annotations.getMetadata());
+            writer.write(annotations.getSegments());
+        }
+        finally {
+            writer.close();
+        }
+    }
+    
+    protected static AnnotationFile read(File file) throws java.io.IOException
+    {
+        SegmentCodec.Reader reader = new SegmentCodec.Reader(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            String identifier = reader.readString();
+            Document.Metadata metadata = reader.readMetadata();
+            
+            return new AnnotationFile(identifier, metadata, reader.readSegmentList());
+        }
+        finally {
+            reader.close();
+        }
+    }
+    
+    public int getHits()
+    {
+        return hits.get();
+    }
+    
+    public int getMisses()
+    {
+        return misses.get();
+    }
+    
+    public int getMetadataHits()
+    {
+        return metadataHits.get();
+    }
+    
+    public int getMetadataMisses()
+    {
+        return metadataMisses.get();
+    }
+    
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+        metadataHits.set(0);
+        metadataMisses.set(0);
+    }
+    
+    public String toString()
+    {
+        return "Annotation cache " + directory + ": " + getHits() + " hits, " + getMisses() + " misses"
+            + " (metadata alone: " + getMetadataHits() + " hits, " + getMetadataMisses() + " misses)";
+    }
+}
@@ -0,0 +1,198 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.util.Map;
+
+/**
+ * Annotation results for one document, stored in a text file.
+ *
+ * The file is encoded as UTF-8 with one entry per line
+ * and the fields separated by tabulators:
+ * <pre>
+ * identifier  doc001
+ * metadata    http://purl.org/dc/elements/1.1/date  1916-01-04 11:30 (a.m.)
+ * segment     120  131  pattern-name=person
+ * </pre>
+ * Tabulators, line ends and backslashes inside the fields are escaped
+ * as "\t", "\n", "\r" and "\\".
+ */
+public class AnnotationFile
+{
+    protected static final String HEADER = "# HistoRadar annotations 1";
+    
+    protected String identifier;
+    protected Document.Metadata metadata;
+    protected Document.SegmentList segments;
+    
+    public AnnotationFile(String identifier, Document.Metadata metadata, Document.SegmentList segments)
+    {
+        this.identifier = identifier;
+        this.metadata   = metadata;
+        this.segments   = segments;
+    }
+    
+    public String getIdentifier()               { return identifier; }
+    public Document.Metadata getMetadata()      { return metadata;   }
+    public Document.SegmentList getSegments()   { return segments;   }
+    
+    /**
+     * Write the annotations to a file, replacing it if it exists.
+     *
+     * @param file where to write
+     */
+    public void write(File file) throws java.io.IOException
+    {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), Document.DEFAULT_CHARSET));
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            writer.write("identifier\t");
+            writer.write(escape(identifier));
+            writer.write('\n');
+            for (Map.Entry<String, Document.Metadata.Values> entry : metadata.entrySet()) {
+                for (String value : entry.getValue()) {
+                    writer.write("metadata\t");
+                    writer.write(escape(entry.getKey()));
+                    writer.write('\t');
+                    writer.write(escape(value));
+                    writer.write('\n');
+                }
+            }
+            for (Document.Segment segment : segments) {
+                writer.write("segment\t");
+                writer.write(String.valueOf(segment.getBegin()));
+                writer.write('\t');
+                writer.write(String.valueOf(segment.getEnd()));
+                for (Map.Entry<String, String> attribute : segment.entrySet()) {
+                    writer.write('\t');
+                    writer.write(escape(attribute.getKey()));
+                    writer.write('=');
+                    writer.write(escape(attribute.getValue()));
+                }
+                writer.write('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+    
+    /**
+     * Read the annotations from a file written by {@link #write(File)}.
+     *
+     * @param file where to read from
+     * @return the annotations
+     */
+    public static AnnotationFile read(File file) throws java.io.IOException
+    {
+        String identifier = null;
+        Document.Metadata metadata = new Document.Metadata();
+        Document.SegmentList segments = new Document.SegmentList();
+        
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Document.DEFAULT_CHARSET));
+        try {
+            String line = reader.readLine();
+            if (! HEADER.equals(line)) {
+                throw new java.io.IOException("Not an annotation file: " + file);
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if ("segment".equals(fields[0]) && fields.length >= 3) {
+                    Document.Segment segment = new Document.Segment(Integer.parseInt(fields[1]),
+                                                                    Integer.parseInt(fields[2]));
+                    for (int i = 3; i < fields.length; ++i) {
+                        int separator = fields[i].indexOf('=');
+                        if (separator < 0) continue;
+                        segment.put(unescape(fields[i].substring(0, separator)),
+                                    unescape(fields[i].substring(separator + 1)));
+                    }
+                    segments.add(segment);
+                }
+                else if ("metadata".equals(fields[0]) && fields.length == 3) {
+                    metadata.add(unescape(fields[1]), unescape(fields[2]));
+                }
+                else if ("identifier".equals(fields[0]) && fields.length == 2) {
+                    identifier = unescape(fields[1]);
+                }
+                else {
+                    throw new java.io.IOException("Malformed line in " + file + ": " + line);
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new java.io.IOException("Malformed segment in " + file + ": " + e.getMessage());
+        }
+        finally {
+            reader.close();
+        }
+        
+        return new AnnotationFile(identifier, metadata, segments);
+    }
+    
+    protected static String escape(String text)
+    {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '\\': escaped.append("\\\\"); break;
+            case '\t': escaped.append("\\t");  break;
+            case '\n': escaped.append("\\n");  break;
+            case '\r': escaped.append("\\r");  break;
+            default:   escaped.append(c);
+            }
+        }
+        
+        return escaped.toString();
+    }
+    
+    protected static String unescape(String text)
+    {
+        if (text.indexOf('\\') < 0) return text;
+        
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if ('\\' == c && i + 1 < text.length()) {
+                c = text.charAt(++i);
+                switch (c) {
+                case 't': c = '\t'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                default: // '\\' stays as it is.
+                }
+            }
+            unescaped.append(c);
+        }
+        
+        return unescaped.toString();
+    }
+}
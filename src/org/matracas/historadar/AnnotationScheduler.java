@@ -0,0 +1,270 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Annotation of a collection in the order the user needs it.
+ *
+ * First all documents are prepared with
+ * {@link Annotator#prepareDocument(Document)}, which is fast and gives
+ * the dates needed to sort the collection, and the entities of those
+ * already annotated before or found in the cache.
+ * Then the named entities are searched for in the remaining documents,
+ * starting with the ones given to {@link #prioritize(List)}
+ * and going on with the rest in collection order.
+ * The priorities can be changed at any time from another thread,
+ * for instance when the user scrolls the radar.
+ */
+public class AnnotationScheduler
+{
+    protected Annotator annotator;
+    protected Document.Collection documents;
+    protected Annotator.SegmentsTable segmentsInDocuments;
+    protected int threads;
+    protected LinkedList<Document> urgent;
+    protected Iterator<Document> background;
+    protected Set<String> claimed;
+    protected AtomicInteger count;
+    protected volatile boolean prepared;
+    
+    /**
+     * Receives notifications during the annotation.
+     *
+     * The notifications come from the annotation threads,
+     * so implementations must be thread-safe.
+     */
+    public interface Listener extends Annotator.ProgressListener
+    {
+        /**
+         * Called once all documents are prepared and the collection
+         * sorted, before the search for named entities starts.
+         *
+         * @param segmentsInDocuments the table where the entities
+         *        are put as they are found, already holding those
+         *        known from before
+         */
+        public void collectionPrepared(Annotator.SegmentsTable segmentsInDocuments);
+    }
+    
+    public AnnotationScheduler(Annotator annotator, Document.Collection documents)
+    {
+        this.annotator = annotator;
+        this.documents = documents;
+        segmentsInDocuments = new Annotator.SegmentsTable();
+        threads = annotator.getStageThreads(Annotator.Step.NER);
+        urgent = new LinkedList<Document>();
+        background = null;
+        claimed = java.util.Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        count = new AtomicInteger(0);
+        prepared = false;
+    }
+    
+    /**
+     * @param threads number of annotation threads, by default
+     *        the number of named entity recognition threads
+     *        of the annotator
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+    
+    public int getThreads()
+    {
+        return threads;
+    }
+    
+    /**
+     * @return the entities found so far in each document
+     */
+    public Annotator.SegmentsTable getSegmentsTable()
+    {
+        return segmentsInDocuments;
+    }
+    
+    /**
+     * @return whether all documents have been prepared
+     *         and the collection sorted
+     */
+    public boolean isPrepared()
+    {
+        return prepared;
+    }
+    
+    /**
+     * Annotate these documents next, in this order,
+     * instead of those given in previous calls.
+     *
+     * @param documents the documents the user is looking at
+     */
+    public synchronized void prioritize(List<Document> documents)
+    {
+        urgent = new LinkedList<Document>(documents);
+    }
+    
+    /**
+     * Annotate this document before any other still waiting.
+     *
+     * @param document the document the user is looking at
+     */
+    public synchronized void prioritize(Document document)
+    {
+        urgent.addFirst(document);
+    }
+    
+    /**
+     * @return whether the document is being annotated or already done
+     */
+    public boolean isClaimed(Document document)
+    {
+        return claimed.contains(document.getIdentifier());
+    }
+    
+    /**
+     * Take the next document to annotate.
+     *
+     * @return the document, or <code>null</code> if none are left
+     */
+    protected synchronized Document next()
+    {
+        while (! urgent.isEmpty()) {
+            Document document = urgent.removeFirst();
+            if (claimed.add(document.getIdentifier())) return document;
+        }
+        while (background != null && background.hasNext()) {
+            Document document = background.next();
+            if (claimed.add(document.getIdentifier())) return document;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Annotate the whole collection.
+     *
+     * If the calling thread is interrupted, the annotation threads are
+     * interrupted and the exception is propagated.
+     *
+     * @param listener notified of the progress, or <code>null</code>
+     * @return the named entities found in each document
+     */
+    public Annotator.SegmentsTable run(final Listener listener)
+        throws InterruptedException
+    {
+        final int total = documents.size();
+        final Vector<Document> pending = new Vector<Document>();
+        for (Document document : documents) pending.add(document);
+        final AtomicInteger prepareIndex = new AtomicInteger(0);
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Object>> workers = new Vector<Callable<Object>>();
+            for (int i = 0; i < threads; ++i) {
+                workers.add(new Callable<Object>() {
+                        public Object call()
+                        {
+                            int index;
+                            while ((index = prepareIndex.getAndIncrement()) < pending.size()) {
+                                if (Thread.currentThread().isInterrupted()) break;
+                                prepare(pending.get(index));
+                            }
+                            return null;
+                        }
+                    });
+            }
+            pool.invokeAll(workers);
+            if (Thread.interrupted()) throw new InterruptedException();
+            
+            documents.sort();
+            synchronized (this) {
+                background = documents.iterator();
+            }
+            prepared = true;
+            if (listener != null) listener.collectionPrepared(segmentsInDocuments);
+            
+            workers.clear();
+            for (int i = 0; i < threads; ++i) {
+                workers.add(new Callable<Object>() {
+                        public Object call()
+                        {
+                            Document document;
+                            while ((document = next()) != null) {
+                                if (Thread.currentThread().isInterrupted()) break;
+                                annotate(document, listener, total);
+                            }
+                            return null;
+                        }
+                    });
+            }
+            pool.invokeAll(workers);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        
+        return segmentsInDocuments;
+    }
+    
+    protected void prepare(Document document)
+    {
+        try {
+            Document.SegmentList segments = annotator.prepareDocument(document);
+            if (segments != null && claimed.add(document.getIdentifier())) {
+                segmentsInDocuments.put(document.getIdentifier(), segments);
+                count.incrementAndGet();
+            }
+        }
+        catch (RuntimeException e) {
+            System.err.println("Error: preparation failed for " + document.getIdentifier() + ": " + e);
+            e.printStackTrace();
+        }
+    }
+    
+    protected void annotate(Document document, Listener listener, int total)
+    {
+        Document.SegmentList segments = null;
+        try {
+            segments = annotator.annotateDocument(document);
+        }
+        catch (RuntimeException e) {
+            System.err.println("Error: annotation failed for " + document.getIdentifier() + ": " + e);
+            e.printStackTrace();
+        }
+        if (segments != null) segmentsInDocuments.put(document.getIdentifier(), segments);
+        if (listener != null) {
+            listener.documentAnnotated(null == segments ? null : document, count.incrementAndGet(), total);
+        }
+    }
+}
@@ -0,0 +1,741 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.matracas.historadar.nlp.OCR;
+import org.matracas.historadar.nlp.Metadata;
+import org.matracas.historadar.nlp.NER;
+
+/**
+ * Annotation of documents: OCR correction, metadata extraction
+ * and named entity recognition.
+ *
+ * A whole collection can be annotated with
+ * {@link #annotate(Document.Collection, ProgressListener)},
+ * which runs the steps as a pipeline of {@link Stage}s connected by
+ * bounded queues. Each stage has its own number of threads,
+ * so that the slow named entity recognition can use most processors
+ * while the cheaper stages run ahead.
+ * <br/>
+ * The annotator remembers which steps it has done on each document,
+ * so annotating a collection again after changing the tagger
+ * only runs the named entity recognition, and only on the documents
+ * whose entities were found with a different tagger.
+ * The OCR corrections are applied to the document texts, and never twice.
+ */
+public class Annotator
+{
+    protected OCR ocr;
+    protected Metadata metadata;
+    protected volatile NER tagger;
+    protected Map<Step, Integer> stageThreads;
+    protected int queueCapacity;
+    protected Map<Step, Stage> stages;
+    protected AnnotationCache cache;
+    protected Map<String, State> states;
+    
+    /**
+     * The steps of the annotation, in order.
+     */
+    public enum Step { LOAD, OCR, METADATA, NER };
+    
+    /**
+     * Segments found in each document, indexed by document identifier.
+     */
+    public static class SegmentsTable extends java.util.concurrent.ConcurrentHashMap<String, Document.SegmentList>
+    {
+    }
+    
+    /**
+     * Receives progress notifications during the annotation of a collection.
+     *
+     * The notifications come from the annotation threads,
+     * so implementations must be thread-safe.
+     */
+    public interface ProgressListener
+    {
+        /**
+         * Called after each document is annotated.
+         *
+         * @param document the document just annotated,
+         *        or <code>null</code> if its annotation failed
+         * @param count how many documents have been annotated so far
+         * @param total how many documents will be annotated in total
+         */
+        public void documentAnnotated(Document document, int count, int total);
+    }
+    
+    public Annotator(OCR ocr, Metadata metadata, NER tagger)
+    {
+        this.ocr      = ocr;
+        this.metadata = metadata;
+        this.tagger   = tagger;
+        stageThreads = new EnumMap<Step, Integer>(Step.class);
+        setThreads(Runtime.getRuntime().availableProcessors());
+        queueCapacity = 16;
+        stages = new EnumMap<Step, Stage>(Step.class);
+        cache = null;
+        states = new ConcurrentHashMap<String, State>();
+    }
+    
+    public OCR getOCR()           { return ocr;      }
+    public Metadata getMetadata() { return metadata; }
+    public NER getTagger()        { return tagger;   }
+    
+    public void setTagger(NER tagger)
+    {
+        this.tagger = tagger;
+    }
+    
+    /**
+     * What this annotator has done to a document.
+     */
+    protected static class State
+    {
+        protected final Document document;
+        protected volatile boolean corrected;
+        protected volatile boolean extracted;
+        protected volatile String taggedWith;
+        protected volatile Document.SegmentList segments;
+        
+        protected State(Document document)
+        {
+            this.document = document;
+            corrected  = false;
+            extracted  = false;
+            taggedWith = null;
+            segments   = null;
+        }
+    }
+    
+    /**
+     * Get the state of a document, starting a new one if the document
+     * has not been seen before or has been loaded again since.
+     */
+    protected State getState(Document document)
+    {
+        State state = states.get(document.getIdentifier());
+        if (null == state || state.document != document) {
+            state = new State(document);
+            states.put(document.getIdentifier(), state);
+        }
+        
+        return state;
+    }
+    
+    /**
+     * Identify a tagger by its class and configuration, which
+     * determine the entities it finds.
+     */
+    protected static String identify(NER tagger)
+    {
+        return tagger.getClass().getName() + "\n" + tagger.getConfiguration();
+    }
+    
+    /**
+     * Reuse the annotations stored in a cache,
+     * and store there the new ones.
+     *
+     * @param cache the cache, or <code>null</code> to disable it
+     */
+    public void setCache(AnnotationCache cache)
+    {
+        this.cache = cache;
+    }
+    
+    public AnnotationCache getCache()
+    {
+        return cache;
+    }
+    
+    /**
+     * Distribute a number of threads among the stages.
+     *
+     * The named entity recognition stage gets all of them,
+     * OCR correction and metadata extraction one for every four,
+     * and loading one.
+     *
+     * @param threads number of threads, by default
+     *        the number of available processors
+     */
+    public void setThreads(int threads)
+    {
+        threads = Math.max(1, threads);
+        setStageThreads(Step.LOAD,     1);
+        setStageThreads(Step.OCR,      Math.max(1, threads / 4));
+        setStageThreads(Step.METADATA, Math.max(1, threads / 4));
+        setStageThreads(Step.NER,      threads);
+    }
+    
+    /**
+     * Set the number of threads for one stage.
+     *
+     * @param step the stage
+     * @param threads number of threads
+     */
+    public void setStageThreads(Step step, int threads)
+    {
+        stageThreads.put(step, Math.max(1, threads));
+    }
+    
+    public int getStageThreads(Step step)
+    {
+        return stageThreads.get(step);
+    }
+    
+    /**
+     * Set how many documents can wait between two stages.
+     *
+     * @param capacity the queue size, 16 by default
+     */
+    public void setQueueCapacity(int capacity)
+    {
+        queueCapacity = Math.max(1, capacity);
+    }
+    
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+    
+    /**
+     * Get a stage of the current or last pipeline run,
+     * to read its queue depth and throughput.
+     *
+     * @param step the stage
+     * @return the stage, or <code>null</code> if no annotation has been run
+     */
+    public Stage getStage(Step step)
+    {
+        return stages.get(step);
+    }
+    
+    /**
+     * Annotate a single document.
+     *
+     * The OCR corrections are applied to the document text,
+     * and the metadata extracted is added to the document metadata.
+     *
+     * @param document the document to annotate
+     * @return the named entities found in the document
+     */
+    public Document.SegmentList annotateDocument(Document document)
+    {
+        if (null == document) return null;
+        
+        Job job = new Job(document);
+        lookUp(job);
+        correctOCR(job);
+        extractMetadata(job);
+        tag(job);
+        
+        return job.segments;
+    }
+    
+    /**
+     * Do the cheap steps of the annotation of a document:
+     * the OCR correction and the metadata extraction,
+     * which are needed to place the document in the collection.
+     * The named entities are returned if they are already known
+     * from before or from the cache, but never searched for here.
+     *
+     * @param document the document to prepare
+     * @return the named entities found in the document,
+     *         or <code>null</code> if {@link #annotateDocument(Document)}
+     *         is still needed to find them
+     */
+    public Document.SegmentList prepareDocument(Document document)
+    {
+        if (null == document) return null;
+        
+        Job job = new Job(document);
+        lookUp(job);
+        correctOCR(job);
+        extractMetadata(job);
+        if (job.cached) tag(job);
+        
+        return job.segments;
+    }
+    
+    /**
+     * Get the annotations of a document from what was done before
+     * or from the cache if there.
+     * The tagger is fixed here for the rest of the annotation of the document.
+     */
+    protected void lookUp(Job job)
+    {
+        job.state  = getState(job.document);
+        job.tagger = tagger;
+        job.taggerIdentity = identify(job.tagger);
+        if (job.state.segments != null && job.taggerIdentity.equals(job.state.taggedWith)) {
+            job.segments = job.state.segments;
+            job.cached = true;
+            return;
+        }
+        if (null == cache) return;
+        
+        String[] keys;
+        try {
+            keys = cache.keys(job.document, ocr, metadata, job.tagger);
+        }
+        catch (java.io.IOException e) {
+            System.err.println("Error: " + e);
+            return;
+        }
+        job.metadataKey = keys[0];
+        job.cacheKey    = keys[1];
+        AnnotationFile annotations = cache.get(job.cacheKey);
+        if (annotations != null) {
+            useMetadata(job, annotations);
+            job.segments = annotations.getSegments();
+            job.cached = true;
+        }
+        else if (! job.state.extracted) {
+            annotations = cache.getMetadata(job.metadataKey);
+            if (annotations != null) useMetadata(job, annotations);
+        }
+    }
+    
+    /**
+     * Take the metadata of a document from the cache,
+     * unless another thread has extracted it already.
+     */
+    protected void useMetadata(Job job, AnnotationFile annotations)
+    {
+        synchronized (job.state) {
+            if (job.state.extracted) return;
+            job.document.getMetadata().putAll(annotations.getMetadata());
+            job.state.extracted = true;
+        }
+    }
+    
+    /**
+     * Put the annotations of a document in the cache.
+     */
+    protected void store(Job job)
+    {
+        if (null == cache || null == job.cacheKey || null == job.segments) return;
+        
+        try {
+            cache.put(job.cacheKey, new AnnotationFile(job.document.getIdentifier(),
+                                                       job.document.getMetadata(),
+                                                       job.segments));
+        }
+        catch (java.io.IOException e) {
+            System.err.println("Error: " + e);
+        }
+    }
+    
+    /**
+     * Put the metadata of a document in the cache, on its own.
+     */
+    protected void storeMetadata(Job job)
+    {
+        if (null == cache || null == job.metadataKey) return;
+        
+        try {
+            cache.put(job.metadataKey, new AnnotationFile(job.document.getIdentifier(),
+                                                          job.document.getMetadata(),
+                                                          new Document.SegmentList()));
+        }
+        catch (java.io.IOException e) {
+            System.err.println("Error: " + e);
+        }
+    }
+    
+    /**
+     * Apply the OCR corrections to the document text,
+     * unless it has been done already, also by another thread.
+     */
+    protected void correctOCR(Job job)
+    {
+        synchronized (job.state) {
+            if (job.state.corrected) return;
+            correctOCR(job.document);
+            job.state.corrected = true;
+        }
+    }
+    
+    /**
+     * Extract the metadata of the document,
+     * unless it has been done already or it was in the cache.
+     */
+    protected void extractMetadata(Job job)
+    {
+        synchronized (job.state) {
+            if (job.state.extracted) return;
+            extractMetadata(job.document);
+            job.state.extracted = true;
+        }
+        storeMetadata(job);
+    }
+    
+    /**
+     * Find the named entities in the document,
+     * unless they were found already with the same tagger.
+     */
+    protected void tag(Job job)
+    {
+        if (! job.cached) {
+            job.segments = tag(job.tagger, job.document);
+            store(job);
+        }
+        job.state.segments   = job.segments;
+        job.state.taggedWith = job.taggerIdentity;
+    }
+    
+    protected void correctOCR(Document document)
+    {
+        int corrections = ocr.correctDocument(document);
+        System.err.println("Corrected " + corrections + " errors from the OCR text of " + document.getIdentifier());
+    }
+    
+    protected void extractMetadata(Document document)
+    {
+        Document.Metadata entries = metadata.getMetadata(document);
+        document.getMetadata().putAll(entries);
+    }
+    
+    protected Document.SegmentList tag(NER tagger, Document document)
+    {
+        if (tagger.isThreadSafe()) {
+            return tagger.getEntities(document);
+        }
+        else {
+            synchronized (tagger) {
+                return tagger.getEntities(document);
+            }
+        }
+    }
+    
+    /**
+     * Use the annotations precomputed by {@link Batch} for a collection.
+     *
+     * The OCR correction is applied to each document if it was not
+     * already, since the segment offsets refer to the corrected text.
+     * Documents without an annotation file are annotated normally.
+     *
+     * @param documents the collection
+     * @param directory where the annotation files are
+     * @param listener progress listener, or <code>null</code>
+     * @return the named entities found in each document
+     */
+    public SegmentsTable load(Document.Collection documents, File directory, ProgressListener listener)
+        throws InterruptedException
+    {
+        SegmentsTable segmentsInDocuments = new SegmentsTable();
+        int count = 0, total = documents.size();
+        for (Document document : documents) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            File file = new File(directory, document.getIdentifier() + ".annotations");
+            Document.SegmentList segments = null;
+            if (file.exists()) {
+                try {
+                    AnnotationFile annotations = AnnotationFile.read(file);
+                    State state = getState(document);
+                    if (! state.corrected) {
+                        correctOCR(document);
+                        state.corrected = true;
+                    }
+                    if (! state.extracted) {
+                        document.getMetadata().putAll(annotations.getMetadata());
+                        state.extracted = true;
+                    }
+                    segments = annotations.getSegments();
+                    // The tagger that produced them is not known.
+                    state.segments   = segments;
+                    state.taggedWith = null;
+                }
+                catch (java.io.IOException e) {
+                    System.err.println("Error: " + e);
+                }
+            }
+            if (null == segments) segments = annotateDocument(document);
+            segmentsInDocuments.put(document.getIdentifier(), segments);
+            if (listener != null) listener.documentAnnotated(document, ++count, total);
+        }
+        
+        return segmentsInDocuments;
+    }
+    
+    /**
+     * A document on its way through the pipeline.
+     */
+    protected static class Job
+    {
+        protected Document document;
+        protected Document.SegmentList segments;
+        protected boolean failed;
+        protected String cacheKey;
+        protected String metadataKey;
+        protected boolean cached;
+        protected State state;
+        protected NER tagger;
+        protected String taggerIdentity;
+        
+        protected Job(Document document)
+        {
+            this.document = document;
+            segments = null;
+            failed = false;
+            cacheKey = null;
+            metadataKey = null;
+            cached = false;
+        }
+    }
+    
+    /** Marks the end of the input in the pipeline queues. */
+    protected static final Job END = new Job(null);
+    
+    /**
+     * One step of the annotation pipeline, with its input queue
+     * and the threads that process it.
+     */
+    public abstract class Stage
+    {
+        protected Step step;
+        protected int threads;
+        protected BlockingQueue<Job> input;
+        protected BlockingQueue<Job> output;
+        protected AtomicInteger running;
+        protected AtomicInteger processed;
+        protected AtomicLong busyNanoseconds;
+        protected long startNanoseconds;
+        
+        protected Stage(Step step, BlockingQueue<Job> input, BlockingQueue<Job> output)
+        {
+            this.step   = step;
+            this.input  = input;
+            this.output = output;
+            threads = getStageThreads(step);
+            running = new AtomicInteger(threads);
+            processed = new AtomicInteger(0);
+            busyNanoseconds = new AtomicLong(0);
+        }
+        
+        /**
+         * Process one document.
+         */
+        protected abstract void process(Job job);
+        
+        protected void start(ExecutorService pool)
+        {
+            startNanoseconds = System.nanoTime();
+            for (int i = 0; i < threads; ++i) {
+                pool.execute(new Runnable() {
+                        public void run()
+                        {
+                            try {
+                                work();
+                            }
+                            catch (InterruptedException e) {
+                                // Cancelled.
+                            }
+                        }
+                    });
+            }
+        }
+        
+        protected void work() throws InterruptedException
+        {
+            while (true) {
+                Job job = input.take();
+                if (END == job) {
+                    // Let the other threads of this stage see it too,
+                    // and pass it on when the last one finishes.
+                    input.put(END);
+                    if (running.decrementAndGet() == 0) output.put(END);
+                    return;
+                }
+                if (! job.failed) {
+                    long start = System.nanoTime();
+                    try {
+                        process(job);
+                    }
+                    catch (Throwable e) {
+                        // Also errors such as OutOfMemoryError or StackOverflowError
+                        // on one document, which would otherwise end this thread
+                        // and leave the documents after it waiting forever.
+                        System.err.println("Error: " + step + " failed for " + job.document.getIdentifier() + ": " + e);
+                        e.printStackTrace();
+                        job.failed = true;
+                    }
+                    busyNanoseconds.addAndGet(System.nanoTime() - start);
+                    processed.incrementAndGet();
+                }
+                output.put(job);
+            }
+        }
+        
+        public Step getStep()
+        {
+            return step;
+        }
+        
+        public int getThreads()
+        {
+            return threads;
+        }
+        
+        /**
+         * @return number of documents waiting for this stage
+         */
+        public int getQueueDepth()
+        {
+            int depth = input.size();
+            if (input.contains(END)) --depth;
+            
+            return depth;
+        }
+        
+        /**
+         * @return number of documents processed by this stage
+         */
+        public int getProcessed()
+        {
+            return processed.get();
+        }
+        
+        /**
+         * @return documents per second processed since the stage started
+         */
+        public double getThroughput()
+        {
+            double seconds = (System.nanoTime() - startNanoseconds) / 1e9;
+            if (seconds <= 0) return 0;
+            
+            return processed.get() / seconds;
+        }
+        
+        /**
+         * @return average time in seconds that one thread spends
+         *         on one document
+         */
+        public double getServiceTime()
+        {
+            int count = processed.get();
+            if (0 == count) return 0;
+            
+            return busyNanoseconds.get() / 1e9 / count;
+        }
+        
+        public String toString()
+        {
+            return String.format(java.util.Locale.ENGLISH,
+                                 "%-8s threads: %2d, queued: %3d, processed: %6d, %.3f docs/s, %.3fs per doc",
+                                 step, threads, getQueueDepth(), getProcessed(),
+                                 getThroughput(), getServiceTime());
+        }
+    }
+    
+    /**
+     * Annotate all documents in a collection through the stage pipeline.
+     *
+     * If the calling thread is interrupted, the pipeline threads are
+     * interrupted and the exception is propagated.
+     *
+     * @param documents the collection to annotate
+     * @param listener progress listener, or <code>null</code>
+     * @return the named entities found in each document
+     */
+    public SegmentsTable annotate(Document.Collection documents, ProgressListener listener)
+        throws InterruptedException
+    {
+        SegmentsTable segmentsInDocuments = new SegmentsTable();
+        int total = documents.size();
+        
+        BlockingQueue<Job> loadQueue     = new ArrayBlockingQueue<Job>(queueCapacity);
+        BlockingQueue<Job> ocrQueue      = new ArrayBlockingQueue<Job>(queueCapacity);
+        BlockingQueue<Job> metadataQueue = new ArrayBlockingQueue<Job>(queueCapacity);
+        BlockingQueue<Job> nerQueue      = new ArrayBlockingQueue<Job>(queueCapacity);
+        BlockingQueue<Job> doneQueue     = new ArrayBlockingQueue<Job>(queueCapacity);
+        stages.clear();
+        if (cache != null) cache.resetStatistics();
+        stages.put(Step.LOAD, new Stage(Step.LOAD, loadQueue, ocrQueue) {
+                protected void process(Job job) { job.document.getText(); lookUp(job); }
+            });
+        stages.put(Step.OCR, new Stage(Step.OCR, ocrQueue, metadataQueue) {
+                protected void process(Job job) { correctOCR(job); }
+            });
+        stages.put(Step.METADATA, new Stage(Step.METADATA, metadataQueue, nerQueue) {
+                protected void process(Job job) { extractMetadata(job); }
+            });
+        stages.put(Step.NER, new Stage(Step.NER, nerQueue, doneQueue) {
+                protected void process(Job job) { tag(job); }
+            });
+        
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            for (Stage stage : stages.values()) stage.start(pool);
+            
+            // Feed the pipeline from its own thread so that the results
+            // can be collected here at the same time.
+            final Iterator<Document> i = documents.iterator();
+            final BlockingQueue<Job> feed = loadQueue;
+            pool.execute(new Runnable() {
+                    public void run()
+                    {
+                        try {
+                            while (i.hasNext()) feed.put(new Job(i.next()));
+                            feed.put(END);
+                        }
+                        catch (InterruptedException e) {
+                            // Cancelled.
+                        }
+                    }
+                });
+            
+            int count = 0;
+            Job job;
+            while ((job = doneQueue.take()) != END) {
+                if (! job.failed && job.segments != null) {
+                    segmentsInDocuments.put(job.document.getIdentifier(), job.segments);
+                }
+                ++count;
+                if (listener != null) {
+                    listener.documentAnnotated(job.failed ? null : job.document, count, total);
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        
+        for (Stage stage : stages.values()) System.err.println(stage);
+        if (cache != null) System.err.println(cache);
+        
+        return segmentsInDocuments;
+    }
+}
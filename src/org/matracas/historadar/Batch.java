@@ -0,0 +1,241 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.io.File;
+
+import org.matracas.historadar.nlp.OCR;
+import org.matracas.historadar.nlp.Metadata;
+import org.matracas.historadar.nlp.NER;
+import org.matracas.historadar.nlp.ner.SimpleRegexp;
+import org.matracas.historadar.nlp.ner.OpenNlpNER;
+import org.matracas.historadar.nlp.ner.StanfordNER;
+import org.matracas.historadar.nlp.ner.Gazetteer;
+import org.matracas.historadar.nlp.ner.Ensemble;
+
+/**
+ * Command line annotation of a whole collection, without GUI.
+ *
+ * The results for each document are written as an {@link AnnotationFile}
+ * named after the document identifier with the extension
+ * "<tt>.annotations</tt>".
+ */
+public class Batch
+{
+    protected static void usage()
+    {
+        System.err.println("Usage: java -cp historadar.jar org.matracas.historadar.Batch [options] collection-directory output-directory\n"
+                           + "Options:\n"
+                           + "  --ner simple-regexp|opennlp-maxent|stanford|gazetteer|ensemble  NER engine (default simple-regexp)\n"
+                           + "  --ensemble-rule union|vote|precedence  how the ensemble merges its engines (default precedence)\n"
+                           + "  --gazetteer directory  name lists for the gazetteer engine (default: the included ones)\n"
+                           + "  --threads n       threads for the NER stage (default: number of processors)\n"
+                           + "  --model-copies n  copies of models that can not be shared between threads (default 1)\n"
+                           + "  --chunk-size n    characters classified at once by the stanford engine, 0 for whole documents\n"
+                           + "                    (default " + StanfordNER.DEFAULT_CHUNK_SIZE + ")\n"
+                           + "  --recursive       include the documents in subdirectories\n"
+                           + "  --memory-mapped   keep the document texts out of the Java heap\n"
+                           + "  --cache directory annotation cache (default: " + AnnotationCache.DEFAULT_DIRECTORY + " in the collection)\n"
+                           + "  --no-cache        do not use the annotation cache");
+        System.exit(1);
+    }
+    
+    /**
+     * Create the tagger for one of the engine names used in the NER menu
+     * of {@link View}, without the "<tt>ner-engine-</tt>" prefix.
+     *
+     * @param engine engine name
+     * @param documents the collection to be tagged
+     * @return the tagger, or <code>null</code> if the name is not known
+     */
+    public static NER createTagger(String engine, Document.Collection documents)
+    {
+        return createTagger(engine, documents, 1);
+    }
+    
+    /**
+     * Create the tagger for one of the engine names used in the NER menu
+     * of {@link View}, without the "<tt>ner-engine-</tt>" prefix.
+     *
+     * @param engine engine name
+     * @param documents the collection to be tagged
+     * @param instances for engines whose models can not be shared between
+     *        threads, how many copies to load
+     * @return the tagger, or <code>null</code> if the name is not known
+     */
+    public static NER createTagger(String engine, Document.Collection documents, int instances)
+    {
+        if      ("simple-regexp".equals(engine))  return new SimpleRegexp(documents);
+        else if ("opennlp-maxent".equals(engine)) return new OpenNlpNER(documents);
+        else if ("stanford".equals(engine))       return new StanfordNER(documents, instances);
+        else if ("gazetteer".equals(engine))      return new Gazetteer(documents);
+        else if ("ensemble".equals(engine))       return Ensemble.createDefault(documents);
+        else                                      return null;
+    }
+    
+    public static void main(String[] args)
+    {
+        System.setProperty("java.awt.headless", "true");
+        
+        String engine = "simple-regexp";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int modelCopies = 1;
+        int chunkSize = StanfordNER.DEFAULT_CHUNK_SIZE;
+        Ensemble.Rule ensembleRule = null;
+        boolean recursive = false, memoryMapped = false;
+        File directory = null, output = null, cacheDirectory = null;
+        boolean useCache = true;
+        for (int i = 0; i < args.length; ++i) {
+            if ("--ner".equals(args[i]) && i + 1 < args.length) {
+                engine = args[++i];
+            }
+            else if ("--gazetteer".equals(args[i]) && i + 1 < args.length) {
+                System.setProperty(Gazetteer.DIRECTORY_PROPERTY, args[++i]);
+            }
+            else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                }
+                catch (NumberFormatException e) {
+                    usage();
+                }
+            }
+            else if ("--model-copies".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    modelCopies = Integer.parseInt(args[++i]);
+                }
+                catch (NumberFormatException e) {
+                    usage();
+                }
+            }
+            else if ("--chunk-size".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    chunkSize = Integer.parseInt(args[++i]);
+                }
+                catch (NumberFormatException e) {
+                    usage();
+                }
+            }
+            else if ("--ensemble-rule".equals(args[i]) && i + 1 < args.length) {
+                try {
+                    ensembleRule = Ensemble.Rule.valueOf(args[++i].toUpperCase());
+                }
+                catch (IllegalArgumentException e) {
+                    usage();
+                }
+            }
+            else if ("--recursive".equals(args[i])) {
+                recursive = true;
+            }
+            else if ("--memory-mapped".equals(args[i])) {
+                memoryMapped = true;
+            }
+            else if ("--cache".equals(args[i]) && i + 1 < args.length) {
+                cacheDirectory = new File(args[++i]);
+            }
+            else if ("--no-cache".equals(args[i])) {
+                useCache = false;
+            }
+            else if (args[i].startsWith("--")) {
+                usage();
+            }
+            else if (null == directory) {
+                directory = new File(args[i]);
+            }
+            else if (null == output) {
+                output = new File(args[i]);
+            }
+            else {
+                usage();
+            }
+        }
+        if (null == directory || null == output) usage();
+        if (! output.isDirectory() && ! output.mkdirs()) {
+            System.err.println("Error: can not create output directory: " + output);
+            System.exit(1);
+        }
+        
+        long start = System.currentTimeMillis();
+        Document.Collection documents = new Document.Collection.Loader()
+            .setRecursive(recursive)
+            .setMemoryMapped(memoryMapped)
+            .load(directory);
+        
+        NER tagger = createTagger(engine, documents, modelCopies);
+        if (null == tagger) {
+            System.err.println("Error: unknown NER engine: " + engine);
+            usage();
+        }
+        if (tagger instanceof Ensemble && ensembleRule != null) {
+            ((Ensemble) tagger).setDefaultRule(ensembleRule);
+        }
+        if (tagger instanceof StanfordNER) {
+            StanfordNER stanford = (StanfordNER) tagger;
+            stanford.setChunking(chunkSize, Math.min(StanfordNER.DEFAULT_OVERLAP, chunkSize / 4));
+            if (modelCopies > 1) stanford.setExecutor(java.util.concurrent.Executors.newFixedThreadPool(modelCopies));
+        }
+        Annotator annotator = new Annotator(new OCR(documents), new Metadata(documents), tagger);
+        annotator.setThreads(threads);
+        if (useCache) {
+            if (null == cacheDirectory) cacheDirectory = new File(directory, AnnotationCache.DEFAULT_DIRECTORY);
+            try {
+                annotator.setCache(new AnnotationCache(cacheDirectory));
+            }
+            catch (java.io.IOException e) {
+                System.err.println("Annotation cache disabled: " + e);
+            }
+        }
+        
+        int errors = 0;
+        try {
+            Annotator.SegmentsTable segmentsInDocuments = annotator.annotate(documents, null);
+            for (Document document : documents) {
+                Document.SegmentList segments = segmentsInDocuments.get(document.getIdentifier());
+                if (null == segments) {
+                    System.err.println("Error: no annotations for " + document.getIdentifier());
+                    ++errors;
+                    continue;
+                }
+                File file = new File(output, document.getIdentifier() + ".annotations");
+                file.getParentFile().mkdirs();
+                try {
+                    new AnnotationFile(document.getIdentifier(), document.getMetadata(), segments).write(file);
+                }
+                catch (java.io.IOException e) {
+                    System.err.println("Error: " + e);
+                    ++errors;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            System.err.println("Interrupted");
+            System.exit(1);
+        }
+        
+        System.err.print("OCR corrections:\n" + annotator.getOCR().getRules());
+        if (tagger instanceof Ensemble) System.err.print(((Ensemble) tagger).getStatistics());
+        double elapsed = (System.currentTimeMillis() - start) / 1000.0;
+        System.err.println("Annotated " + documents.size() + " documents in " + elapsed + "s");
+        System.exit(errors > 0 ? 1 : 0);
+    }
+}
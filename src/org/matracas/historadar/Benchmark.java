@@ -0,0 +1,537 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.util.Vector;
+
+/**
+ * Command line benchmarks for the text processing parts of HistoRadar.
+ *
+ * Usage: <code>java org.matracas.historadar.Benchmark load|segment|dates|search|tokens directory [repetitions]</code>
+ */
+public class Benchmark
+{
+    protected java.text.NumberFormat format;
+    
+    public Benchmark()
+    {
+        format = java.text.NumberFormat.getInstance(java.util.Locale.ENGLISH);
+        format.setMaximumFractionDigits(3);
+    }
+    
+    /**
+     * Find the plain text files in a directory.
+     *
+     * @param directory where to look for the files
+     * @return the files whose name ends with "<tt>.txt</tt>"
+     */
+    protected Vector<File> textFiles(File directory)
+    {
+        Vector<File> files = new Vector<File>();
+        File[] entries = directory.listFiles();
+        if (null == entries) return files;
+        for (int i = 0; i < entries.length; ++i) {
+            if (entries[i].getName().endsWith(".txt")) files.add(entries[i]);
+        }
+        
+        return files;
+    }
+    
+    /**
+     * The line by line loader used before {@link Document#readText(File, java.nio.charset.Charset)},
+     * kept here only as a reference for comparison.
+     */
+    protected String readLineByLine(File file) throws java.io.IOException
+    {
+        String plainText = "";
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                plainText += new String(line.getBytes(), "UTF-8") + "\n";
+            }
+        }
+        finally {
+            reader.close();
+        }
+        
+        return plainText;
+    }
+    
+    /**
+     * Compare the load throughput of the line by line reader
+     * with that of {@link Document#readText(File, java.nio.charset.Charset)}.
+     *
+     * @param directory collection directory
+     * @param repetitions how many times to load each file
+     */
+    public void load(File directory, int repetitions) throws java.io.IOException
+    {
+        Vector<File> files = textFiles(directory);
+        long bytes = 0;
+        for (File file : files) bytes += file.length();
+        System.err.println(files.size() + " files, " + bytes + " bytes");
+        
+        long start, stop;
+        start = System.nanoTime();
+        for (int r = 0; r < repetitions; ++r) {
+            for (File file : files) readLineByLine(file);
+        }
+        stop = System.nanoTime();
+        report("line by line", bytes * repetitions, stop - start);
+        
+        start = System.nanoTime();
+        for (int r = 0; r < repetitions; ++r) {
+            for (File file : files) {
+                new Document(file, null).getPlainText();
+            }
+        }
+        stop = System.nanoTime();
+        report("single pass", bytes * repetitions, stop - start);
+    }
+    
+    /**
+     * Largest word list for which the equivalent regular expression
+     * is also timed, since its cost grows with the number of words.
+     */
+    protected static final int MAXIMUM_REGEXP_WORDS = 1000;
+    
+    /**
+     * Compare the segmentation throughput of a word list compiled into
+     * a single regular expression with that of {@link MultiPatternMatcher},
+     * for word lists from 20 to 100000 entries.
+     * The lists are made of the words found in the collection,
+     * in pairs so that they have several tokens like real entity names,
+     * completed with made up words when there are not enough.
+     *
+     * @param directory collection directory
+     * @param repetitions how many times to segment each document
+     */
+    public void segment(File directory, int repetitions) throws java.io.IOException
+    {
+        Vector<Document> documents = new Vector<Document>();
+        java.util.LinkedHashSet<String> vocabulary = new java.util.LinkedHashSet<String>();
+        long bytes = 0;
+        for (File file : textFiles(directory)) {
+            Document document = new Document(file, null);
+            documents.add(document);
+            String[] tokens = document.getPlainText().split("\\W+");
+            bytes += document.getPlainText().length();
+            for (int i = 1; i < tokens.length; ++i) {
+                if (tokens[i - 1].length() > 0) vocabulary.add(tokens[i - 1] + " " + tokens[i]);
+            }
+        }
+        System.err.println(documents.size() + " documents, " + bytes + " characters, "
+                           + vocabulary.size() + " distinct word pairs");
+        
+        java.util.Iterator<String> pairs = vocabulary.iterator();
+        Vector<String> words = new Vector<String>();
+        int[] sizes = { 20, 1000, 10000, 100000 };
+        for (int size : sizes) {
+            while (words.size() < size) {
+                if (pairs.hasNext()) words.add(pairs.next());
+                else                 words.add("Zq" + Integer.toString(words.size(), 36));
+            }
+            Document.PatternTable patterns = new Document.PatternTable();
+            patterns.putWords("entity", words);
+            
+            long start, stop;
+            int found = 0;
+            if (size <= MAXIMUM_REGEXP_WORDS) {
+                java.util.regex.Pattern pattern = patterns.get("entity");
+                start = System.nanoTime();
+                for (int r = 0; r < repetitions; ++r) {
+                    for (Document document : documents) {
+                        java.util.regex.Matcher matcher = pattern.matcher(document.getText());
+                        while (matcher.find()) ++found;
+                    }
+                }
+                stop = System.nanoTime();
+                report(size + " words, regular expression (" + found + " matches)",
+                       bytes * repetitions, stop - start);
+            }
+            
+            found = 0;
+            start = System.nanoTime();
+            patterns.getMatcher();
+            stop = System.nanoTime();
+            System.err.println(size + " words, automaton built in "
+                               + format.format((stop - start) / 1e9) + "s");
+            start = System.nanoTime();
+            for (int r = 0; r < repetitions; ++r) {
+                for (Document document : documents) {
+                    found += document.segment(patterns).size();
+                }
+            }
+            stop = System.nanoTime();
+            report(size + " words, automaton (" + found + " matches)",
+                   bytes * repetitions, stop - start);
+        }
+    }
+    
+    // The regular expressions used by Metadata before DateScanner:
+    protected static final int REGEXP_FLAGS = java.util.regex.Pattern.CASE_INSENSITIVE | java.util.regex.Pattern.DOTALL | java.util.regex.Pattern.UNICODE_CASE;
+    protected static final java.util.regex.Pattern HELD = java.util.regex.Pattern.compile("held.{1,60}?((\\w+?day|\\w+?uary|march|april|may|june|july|august|\\w+?mber|\\w+?ober)\\b.+?(?:[.,] ?m[.,]?|oon))", REGEXP_FLAGS | java.util.regex.Pattern.CANON_EQ);
+    protected static final java.util.regex.Pattern MONTH = java.util.regex.Pattern.compile("\\w+ry|\\w+ber|\\w+rch|\\w+ril|may|\\wune|\\w+ly|\\w+ust", REGEXP_FLAGS);
+    protected static final java.util.regex.Pattern YEAR = java.util.regex.Pattern.compile("(?:\\w+ry|\\w+ber|\\w+rch|\\w+ril|may|\\wune|\\w+ly|\\w+ust).+([12]\\d{3})", REGEXP_FLAGS);
+    protected static final java.util.regex.Pattern DAY_OF_MONTH = java.util.regex.Pattern.compile("(\\d\\d?).{1,5}(?:\\w+ry|\\w+ber|\\w+rch|\\w+ril|may|\\wune|\\w+ly|\\w+ust)|(?:\\w+ry|\\w+ber|\\w+rch|\\w+ril|may|\\wune|\\w+ly|\\w+ust)\\s{1,2}(\\d\\d?)", REGEXP_FLAGS);
+    protected static final java.util.regex.Pattern TIME = java.util.regex.Pattern.compile("at\\s+(\\d{1,2})[- *o\\\\.]{0,4}(\\d*) ?(a|p|n)?", REGEXP_FLAGS);
+    protected static final java.util.regex.Pattern TIME_OF_DAY = java.util.regex.Pattern.compile("(a\\..*|p\\..*|noon.*)", REGEXP_FLAGS);
+    protected static final String[] MONTHS = {
+        "january", "february", "march", "april", "may", "june",
+        "july", "august", "september", "october", "november", "december"
+    };
+    
+    /**
+     * The date extraction with regular expressions used by
+     * {@link org.matracas.historadar.nlp.Metadata} before
+     * {@link org.matracas.historadar.nlp.DateScanner},
+     * kept here only as a reference for comparison.
+     *
+     * @return the date phrase and the formatted date,
+     *         or <code>null</code> if not found
+     */
+    public static String[] regexpDate(CharSequence text)
+    {
+        java.util.regex.Matcher matcher = HELD.matcher(text);
+        if (! matcher.find()) return null;
+        String plainDate = matcher.group(1);
+        
+        String monthString = "", yearString = "", dayString = "";
+        String hourString = "", minuteString = "", dayTimeString = "";
+        matcher = MONTH.matcher(plainDate);
+        if (matcher.find()) monthString = matcher.group(0);
+        matcher = YEAR.matcher(plainDate);
+        if (matcher.find()) yearString = matcher.group(1);
+        matcher = DAY_OF_MONTH.matcher(plainDate);
+        if (matcher.find()) dayString = (matcher.start(1) == matcher.end(1)) ? matcher.group(2) : matcher.group(1);
+        matcher = TIME.matcher(plainDate);
+        if (matcher.find()) {
+            hourString   = matcher.group(1);
+            minuteString = matcher.group(2);
+        }
+        matcher = TIME_OF_DAY.matcher(plainDate);
+        if (matcher.find()) {
+            String timeOfDay = matcher.group(1).toLowerCase();
+            if      (timeOfDay.startsWith("a")) dayTimeString = "a.m.";
+            else if (timeOfDay.startsWith("p")) dayTimeString = "p.m.";
+            else if (timeOfDay.startsWith("n")) dayTimeString = "noon";
+        }
+        
+        int month = 0;
+        for (int i = 0; i < MONTHS.length; ++i) {
+            if (monthString.equalsIgnoreCase(MONTHS[i])) month = i + 1;
+        }
+        int day = 0, year = 0, hour = 0, minute = 0;
+        try {
+            if (! dayString.equals(""))    day    = Integer.parseInt(dayString);
+            if (! yearString.equals(""))   year   = Integer.parseInt(yearString);
+            if (! hourString.equals(""))   hour   = Integer.parseInt(hourString);
+            if (! minuteString.equals("")) minute = Integer.parseInt(minuteString);
+        }
+        catch (NumberFormatException e) {
+            return new String[] { plainDate, e.getLocalizedMessage() };
+        }
+        if (dayTimeString.startsWith("p") && hour < 12) hour += 12;
+        
+        return new String[] { plainDate, String.format("%4d-%02d-%02d %d:%02d (%s)", year, month, day, hour, minute, dayTimeString) };
+    }
+    
+    /**
+     * Compare the date extraction throughput of the regular expressions
+     * with that of {@link org.matracas.historadar.nlp.DateScanner},
+     * in documents per second, on the documents as they are
+     * and on copies where the date phrase can not be completed
+     * because "a.m.", "p.m." and "noon" have been removed.
+     *
+     * @param directory collection directory
+     * @param repetitions how many times to scan each document
+     */
+    public void dates(File directory, int repetitions) throws java.io.IOException
+    {
+        Vector<String> dated   = new Vector<String>();
+        Vector<String> undated = new Vector<String>();
+        for (File file : textFiles(directory)) {
+            String text = new Document(file, null).getPlainText();
+            dated.add(text);
+            undated.add(text.replaceAll("(?i)[.,] ?m|oon", "_"));
+        }
+        System.err.println(dated.size() + " documents");
+        
+        org.matracas.historadar.nlp.DateScanner scanner = new org.matracas.historadar.nlp.DateScanner();
+        String[] labels = { "dated", "undated" };
+        Vector<Vector<String> > sets = new Vector<Vector<String> >();
+        sets.add(dated);
+        sets.add(undated);
+        for (int i = 0; i < labels.length; ++i) {
+            Vector<String> texts = sets.get(i);
+            long start, stop;
+            int found = 0, different = 0;
+            String[][] expected = new String[texts.size()][];
+            org.matracas.historadar.nlp.DateScanner.DateTime[] dates = new org.matracas.historadar.nlp.DateScanner.DateTime[texts.size()];
+            start = System.nanoTime();
+            for (int r = 0; r < repetitions; ++r) {
+                for (int j = 0; j < texts.size(); ++j) {
+                    expected[j] = regexpDate(texts.get(j));
+                    if (expected[j] != null) ++found;
+                }
+            }
+            stop = System.nanoTime();
+            reportDocuments(labels[i] + ", regular expressions (" + found + " dates)",
+                            texts.size() * repetitions, stop - start);
+            
+            found = 0;
+            start = System.nanoTime();
+            for (int r = 0; r < repetitions; ++r) {
+                for (int j = 0; j < texts.size(); ++j) {
+                    dates[j] = scanner.scan(texts.get(j));
+                    if (dates[j] != null) ++found;
+                }
+            }
+            stop = System.nanoTime();
+            reportDocuments(labels[i] + ", scanner (" + found + " dates)",
+                            texts.size() * repetitions, stop - start);
+            
+            for (int j = 0; j < texts.size(); ++j) {
+                if (null == expected[j] ? dates[j] != null
+                    : null == dates[j] || ! expected[j][0].equals(dates[j].getPhrase()) || ! expected[j][1].equals(dates[j].toString())) {
+                    ++different;
+                }
+            }
+            if (different > 0) System.err.println(labels[i] + ": " + different + " documents with different results");
+        }
+    }
+    
+    /**
+     * Queries for {@link #search(File, int)}: whole words, prefixes,
+     * phrases, and one that does not start with a word.
+     */
+    protected static final String[] QUERIES = {
+        "the", "France", "fra", "Monday", "minister", "at 11", "the Council of", "(a", "zzzz"
+    };
+    
+    /**
+     * Compare the time to search all documents of a collection
+     * with a regular expression, as {@link org.matracas.historadar.ui.DocumentView#search(String)}
+     * does for one document, with that of {@link SearchIndex}.
+     *
+     * @param directory collection directory
+     * @param repetitions how many times to run each query
+     */
+    public void search(File directory, int repetitions)
+    {
+        Document.Collection collection = new Document.Collection(directory);
+        long bytes = 0;
+        for (Document document : collection) bytes += 2 * document.getText().length();
+        System.err.println(collection.size() + " documents");
+        
+        long start, stop;
+        start = System.nanoTime();
+        SearchIndex index = new SearchIndex(collection);
+        stop = System.nanoTime();
+        report("index construction", bytes, stop - start);
+        
+        for (String query : QUERIES) {
+            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\\b" + java.util.regex.Pattern.quote(query),
+                                                                              Document.PatternTable.CASE_INSENSITIVE);
+            int regexpMatches = 0;
+            start = System.nanoTime();
+            for (int r = 0; r < repetitions; ++r) {
+                regexpMatches = 0;
+                for (Document document : collection) {
+                    java.util.regex.Matcher matcher = pattern.matcher(document.getText());
+                    while (matcher.find()) ++regexpMatches;
+                }
+            }
+            stop = System.nanoTime();
+            long regexpTime = stop - start;
+            
+            int indexMatches = 0, documents = 0;
+            start = System.nanoTime();
+            for (int r = 0; r < repetitions; ++r) {
+                indexMatches = 0;
+                java.util.List<SearchIndex.Hit> hits = index.search(query);
+                for (SearchIndex.Hit hit : hits) indexMatches += hit.getCount();
+                documents = hits.size();
+            }
+            stop = System.nanoTime();
+            long indexTime = stop - start;
+            
+            System.err.println("\"" + query + "\": " + indexMatches + " matches in " + documents + " documents, "
+                               + "regular expression " + format.format(regexpTime / 1e6 / repetitions) + "ms, "
+                               + "index " + format.format(indexTime / 1e6 / repetitions) + "ms"
+                               + ((regexpMatches != indexMatches)? ", DIFFERENT from " + regexpMatches: ""));
+        }
+    }
+    
+    /**
+     * OCR output with the kinds of noise that break tokenizers which
+     * only return token strings: double spaces, CRLF line ends, tabs,
+     * ligatures, soft hyphens and letter-spaced headings.
+     */
+    protected static final String[] OCR_SAMPLES = {
+        "The  Council  met  at  11. 30 a.m.  The  Minister  was  present.",
+        "Held at Paris,\r\non Monday,  5th October,\r\n1914, at 3.30 p.m.\r\n\r\nPRESENT:\r\n",
+        "Item\t1.\tThe\tPresident\t(in the Chair).\n\tMr. Smith,\t\tM.P.",
+        "The \ufb01nal o\ufb00er of the \ufb02eet was signed by the Chief of Sta\ufb00.",
+        "The Govern\u00adment of the Re\u00ad\npublic agreed to the in\u00adquiry.",
+        "M I N U T E S  O F  T H E  M E E T I N G\n\nC O N F I D E N T I A L.  Not to be re-\nproduced.",
+        "  \r\n \t ,,the Prime- Minister\" said :\u201cyes\u201d ;  (sic) -- 1,000 \u00a3 ...\r\n",
+        ""
+    };
+    
+    /**
+     * Check that every token found by {@link org.matracas.historadar.nlp.ner.OpenNlpNER#tokenize(String)}
+     * is exactly the text between its offsets, for the {@link #OCR_SAMPLES}
+     * and for the documents of a collection, and time the tokenization.
+     *
+     * @param directory collection directory
+     * @param repetitions how many times to tokenize each document
+     * @return the number of tokens whose offsets do not match their text
+     */
+    public int tokens(File directory, int repetitions)
+    {
+        org.matracas.historadar.nlp.ner.OpenNlpNER ner = new org.matracas.historadar.nlp.ner.OpenNlpNER(null);
+        if (null == ner.tokenize("")) {
+            System.err.println("Error: no sentence or token model");
+            return 1;
+        }
+        
+        int errors = 0;
+        for (int i = 0; i < OCR_SAMPLES.length; ++i) {
+            errors += checkTokens("sample " + i, OCR_SAMPLES[i], ner);
+        }
+        
+        Document.Collection collection = new Document.Collection(directory);
+        long bytes = 0;
+        for (Document document : collection) {
+            bytes += 2 * document.getPlainText().length();
+            errors += checkTokens(document.getIdentifier(), document.getPlainText(), ner);
+        }
+        System.err.println(OCR_SAMPLES.length + " samples, " + collection.size() + " documents, "
+                           + errors + " tokens different from their text");
+        
+        long start = System.nanoTime();
+        for (int r = 0; r < repetitions; ++r) {
+            for (Document document : collection) ner.tokenize(document.getPlainText());
+        }
+        long stop = System.nanoTime();
+        report("tokenization", bytes * repetitions, stop - start);
+        
+        return errors;
+    }
+    
+    /**
+     * Tokenize a text and compare each token with the text between its offsets.
+     * Every character left out of the tokens must be white space,
+     * otherwise the offsets have drifted away from the tokens.
+     *
+     * @return the number of tokens that differ
+     */
+    protected int checkTokens(String label, String text, org.matracas.historadar.nlp.ner.OpenNlpNER ner)
+    {
+        org.matracas.historadar.nlp.TokenSpans tokens = ner.tokenize(text);
+        int errors = 0;
+        int sentenceTokens = 0;
+        for (int s = 0; s < tokens.getSentenceCount(); ++s) {
+            String[] sentence = tokens.getSentenceTokens(s);
+            int first = tokens.getFirstToken(s);
+            for (int t = 0; t < sentence.length; ++t) {
+                CharSequence span = text.subSequence(tokens.getBegin(first + t), tokens.getEnd(first + t));
+                if (! sentence[t].contentEquals(span) || ! tokens.getToken(first + t).contentEquals(span)) {
+                    System.err.println(label + ": token " + (first + t) + " \"" + sentence[t]
+                                       + "\" is \"" + span + "\" in the text");
+                    ++errors;
+                }
+            }
+            sentenceTokens += sentence.length;
+        }
+        int previousEnd = 0;
+        for (int t = 0; t <= tokens.getTokenCount(); ++t) {
+            int begin = (t < tokens.getTokenCount())? tokens.getBegin(t): text.length();
+            for (int i = previousEnd; i < begin; ++i) {
+                if (! Character.isWhitespace(text.charAt(i)) && ! Character.isSpaceChar(text.charAt(i))) {
+                    System.err.println(label + ": character " + i + " \'" + text.charAt(i) + "\' is in no token");
+                    ++errors;
+                    break;
+                }
+            }
+            if (t < tokens.getTokenCount()) previousEnd = tokens.getEnd(t);
+        }
+        if (sentenceTokens != tokens.getTokenCount()) {
+            System.err.println(label + ": " + tokens.getTokenCount() + " tokens but "
+                               + sentenceTokens + " in sentences");
+            ++errors;
+        }
+        
+        return errors;
+    }
+    
+    protected void reportDocuments(String label, int documents, long nanoseconds)
+    {
+        double seconds = nanoseconds / 1e9;
+        System.err.println(label + ": " + format.format(seconds) + "s, "
+                           + format.format(documents / seconds) + " docs/s");
+    }
+    
+    protected void report(String label, long bytes, long nanoseconds)
+    {
+        double seconds = nanoseconds / 1e9;
+        System.err.println(label + ": " + format.format(seconds) + "s, "
+                           + format.format(bytes / 1048576.0 / seconds) + " MB/s");
+    }
+    
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2) {
+            System.err.println("Usage: Benchmark load|segment|dates|search|tokens directory [repetitions]");
+            System.exit(1);
+        }
+        
+        Benchmark benchmark = new Benchmark();
+        int repetitions = 1;
+        if (args.length > 2) repetitions = Integer.parseInt(args[2]);
+        if ("load".equals(args[0])) {
+            benchmark.load(new File(args[1]), repetitions);
+        }
+        else if ("segment".equals(args[0])) {
+            benchmark.segment(new File(args[1]), repetitions);
+        }
+        else if ("dates".equals(args[0])) {
+            benchmark.dates(new File(args[1]), repetitions);
+        }
+        else if ("search".equals(args[0])) {
+            benchmark.search(new File(args[1]), repetitions);
+        }
+        else if ("tokens".equals(args[0])) {
+            if (benchmark.tokens(new File(args[1]), repetitions) > 0) System.exit(1);
+        }
+        else {
+            System.err.println("Error: unknown benchmark: " + args[0]);
+            System.exit(1);
+        }
+    }
+}
@@ -23,8 +23,15 @@
 package org.matracas.historadar;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -44,10 +51,20 @@ public class Document
     implements java.lang.Comparable<Document>
 {
     protected String plainText;
+    protected CharBuffer mappedText;
+    protected boolean memoryMapped;
     protected String identifier;
     protected Metadata metadata;
     protected File file;
+    protected Charset charset;
     private java.net.URI uri;
+    private volatile TypedDate typedDate;
+    
+    /**
+     * Character encoding assumed for document files
+     * unless another one is given with {@link #setCharset(Charset)}.
+     */
+    public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
     
     protected Document()
     {
@@ -65,14 +82,19 @@ public class Document
         metadata = new Metadata();
         this.identifier = identifier;
         plainText = null;
+        mappedText = null;
+        memoryMapped = false;
         this.file = null;
         this.uri  = null;
+        charset = DEFAULT_CHARSET;
     }
     
     /**
      * Constructs a new document from a file.
      *
-     * At the moment only plain text files encoded as UTF-8 are supported.
+     * At the moment only plain text files are supported,
+     * encoded as {@link #DEFAULT_CHARSET} unless changed with
+     * {@link #setCharset(Charset)} before the content is accessed.
      *
      * @param file the file from which to read the document
      * @param identifier string identifier for the document
@@ -97,29 +119,231 @@ public class Document
      */
     protected void loadIfNecessary()
     {
-        if (plainText != null) return;
+        if (plainText != null || mappedText != null) return;
         
-        BufferedReader reader = null;
         try {
-            plainText = "";
-            reader = new BufferedReader(new FileReader(file));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                plainText += new String(line.getBytes(), "UTF-8") + "\n";
-            }
+            if (memoryMapped && file != null) mappedText = mapText(file, charset);
+            else                              plainText  = readText(file, charset);
         }
         catch (java.io.IOException e) {
             System.err.println(e);
+            plainText = "";
+        }
+    }
+    
+    /**
+     * Keep the content of this document out of the Java heap.
+     *
+     * In this mode the text is decoded into a memory-mapped temporary file
+     * and accessed through {@link #getText()}, so that collections larger
+     * than the heap can be processed.
+     * It has effect only if the content has not been loaded yet.
+     *
+     * @param memoryMapped whether to use memory-mapped storage
+     */
+    public void setMemoryMapped(boolean memoryMapped)
+    {
+        this.memoryMapped = memoryMapped;
+    }
+    
+    public boolean getMemoryMapped()
+    {
+        return memoryMapped;
+    }
+    
+    /**
+     * Set the character encoding used when loading the document file.
+     *
+     * It has effect only if the content has not been loaded yet.
+     *
+     * @param charset character encoding of the file
+     */
+    public void setCharset(Charset charset)
+    {
+        this.charset = charset;
+    }
+    
+    public Charset getCharset()
+    {
+        return charset;
+    }
+    
+    /**
+     * Read a whole text file in a single pass.
+     *
+     * The bytes are read into a buffer sized after the file length
+     * and decoded at once, so the time grows linearly with the file size.
+     * Line ends are normalized to "\n", and a final line end is added
+     * if missing, as it was done when reading line by line.
+     *
+     * @param file the file to read
+     * @param charset character encoding of the file
+     * @return the text content
+     */
+    public static String readText(File file, Charset charset)
+        throws java.io.IOException
+    {
+        byte[] bytes;
+        int length = 0;
+        FileInputStream input = new FileInputStream(file);
+        try {
+            bytes = new byte[(int) file.length()];
+            int count;
+            while (true) {
+                if (length == bytes.length) {
+                    // The file grew since we asked for its length.
+                    int next = input.read();
+                    if (next < 0) break;
+                    byte[] larger = new byte[bytes.length * 2 + 1];
+                    System.arraycopy(bytes, 0, larger, 0, length);
+                    bytes = larger;
+                    bytes[length++] = (byte) next;
+                }
+                count = input.read(bytes, length, bytes.length - length);
+                if (count < 0) break;
+                length += count;
+            }
+        }
+        finally {
+            input.close();
+        }
+        
+        CharBuffer decoded = charset.decode(ByteBuffer.wrap(bytes, 0, length));
+        char[] text;
+        int begin, end;
+        if (decoded.hasArray()) {
+            text  = decoded.array();
+            begin = decoded.arrayOffset() + decoded.position();
+            end   = decoded.arrayOffset() + decoded.limit();
+        }
+        else {
+            text  = decoded.toString().toCharArray();
+            begin = 0;
+            end   = text.length;
+        }
+        
+        // Normalize "\r\n" and "\r" to "\n" in place.
+        int j = begin;
+        for (int i = begin; i < end; ++i) {
+            char c = text[i];
+            if ('\r' == c) {
+                if (i + 1 < end && '\n' == text[i + 1]) ++i;
+                c = '\n';
+            }
+            text[j++] = c;
         }
+        end = j;
         
+        if (end > begin && text[end - 1] != '\n') {
+            if (end < text.length) {
+                text[end++] = '\n';
+            }
+            else {
+                return new String(text, begin, end - begin) + "\n";
+            }
+        }
+        
+        return new String(text, begin, end - begin);
+    }
+    
+    /**
+     * Create a writable memory-mapped buffer backed by a temporary file.
+     *
+     * The file is deleted right away when the platform allows it,
+     * otherwise when the program exits.
+     */
+    protected static MappedByteBuffer mapTemporary(long size)
+        throws java.io.IOException
+    {
+        File temporary = File.createTempFile("historadar", ".text");
+        RandomAccessFile storage = new RandomAccessFile(temporary, "rw");
+        MappedByteBuffer buffer;
         try {
-            if (reader != null) reader.close();
+            buffer = storage.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
         }
-        catch (java.io.IOException e) {
-            System.err.println(e);
+        finally {
+            storage.close();
+        }
+        if (! temporary.delete()) temporary.deleteOnExit();
+        
+        return buffer;
+    }
+    
+    /**
+     * Decode a text file into memory-mapped storage outside the Java heap.
+     *
+     * The result is the same as with {@link #readText(File, Charset)}.
+     *
+     * @param file the file to read
+     * @param charset character encoding of the file
+     * @return read-only view of the text content
+     */
+    public static CharBuffer mapText(File file, Charset charset)
+        throws java.io.IOException
+    {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            long capacity = (long) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+            CharBuffer text = mapTemporary(capacity * 2).asCharBuffer();
+            decoder.decode(bytes, text, true);
+            decoder.flush(text);
+            text.flip();
+            
+            // Normalize "\r\n" and "\r" to "\n" in place.
+            int end = text.limit();
+            int j = 0;
+            for (int i = 0; i < end; ++i) {
+                char c = text.get(i);
+                if ('\r' == c) {
+                    if (i + 1 < end && '\n' == text.get(i + 1)) ++i;
+                    c = '\n';
+                }
+                text.put(j++, c);
+            }
+            end = j;
+            text.limit(text.capacity());
+            if (end > 0 && text.get(end - 1) != '\n') text.put(end++, '\n');
+            text.limit(end);
+            
+            return text.slice().asReadOnlyBuffer();
+        }
+        finally {
+            input.close();
         }
     }
     
+    /**
+     * Copy some text into memory-mapped storage outside the Java heap.
+     *
+     * @param text the text to store
+     * @return read-only view of the stored text
+     */
+    public static CharBuffer mapText(CharSequence text)
+        throws java.io.IOException
+    {
+        CharBuffer mapped = mapTemporary(2L * text.length()).asCharBuffer();
+        mapped.append(text);
+        mapped.flip();
+        
+        return mapped.asReadOnlyBuffer();
+    }
+    
+    /**
+     * Get the file the document was loaded from.
+     *
+     * @return the file, or <code>null</code> if the document was not
+     *         constructed from a file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+    
     /**
      * Get the document's identifier as a string.
      *
@@ -159,12 +383,17 @@ public class Document
     /**
      * Get the plain text version of the document as a string.
      *
+     * For memory-mapped documents this makes a copy in the heap:
+     * use {@link #getText()} if that is not needed.
+     *
      * @return plain text content as a string
      */
     public String getPlainText()
     {
         loadIfNecessary();
         
+        if (mappedText != null) return mappedText.toString();
+        
         return plainText;
     }
     
@@ -177,9 +406,28 @@ public class Document
     {
         loadIfNecessary();
         
+        if (mappedText != null) return mappedText.subSequence(segment.begin, segment.end).toString();
+        
         return plainText.substring(segment.begin, segment.end);
     }
     
+    /**
+     * Get the plain text of the document without copying it.
+     *
+     * This is either the text string, or a view of the memory-mapped
+     * storage if {@link #setMemoryMapped(boolean)} was enabled.
+     *
+     * @return plain text content as a character sequence
+     */
+    public CharSequence getText()
+    {
+        loadIfNecessary();
+        
+        if (mappedText != null) return mappedText;
+        
+        return plainText;
+    }
+    
     /**
      * Set the content of the document from a plain text version.
      *
@@ -188,22 +436,276 @@ public class Document
     public void setPlainText(String text)
     {
         plainText = text;
+        mappedText = null;
     }
     
-    public int compareTo(Document other)
+    /**
+     * Set the content of the document,
+     * keeping it in memory-mapped storage if enabled for this document.
+     *
+     * @param text plain text content
+     */
+    public void setText(CharSequence text)
+    {
+        if (memoryMapped) {
+            try {
+                mappedText = mapText(text);
+                plainText = null;
+                return;
+            }
+            catch (java.io.IOException e) {
+                System.err.println(e);
+            }
+        }
+        
+        setPlainText(text.toString());
+    }
+    
+    /**
+     * Get the text if already loaded, without loading it.
+     */
+    protected CharSequence getLoadedText()
+    {
+        if (mappedText != null) return mappedText;
+        
+        return plainText;
+    }
+    
+    /**
+     * Value of {@link #getDate()} for documents without a known date,
+     * which sorts them before all others.
+     */
+    public static final long NO_DATE = Long.MIN_VALUE;
+    
+    public static final long MINUTES_PER_DAY = 24 * 60;
+    
+    /**
+     * Date entry together with the value parsed from it.
+     */
+    private static class TypedDate
+    {
+        final String entry;
+        final long value;
+        TypedDate(String entry, long value)
+        {
+            this.entry = entry;
+            this.value = value;
+        }
+    }
+    
+    /**
+     * Get the date of the document, from the last
+     * {@link Metadata#date} entry, as minutes since 1970-01-01 00:00
+     * in the local time of the document.
+     *
+     * The entry is parsed only the first time, or not at all if
+     * the metadata extractor gave its value with
+     * {@link #setDate(String, long)}.
+     *
+     * @return minutes since the epoch, or {@link #NO_DATE}
+     */
+    public long getDate()
+    {
+        String entry = null;
+        Metadata.Values values = metadata.get(Metadata.date);
+        if (values != null && ! values.isEmpty()) entry = values.lastElement();
+        if (null == entry) return NO_DATE;
+        
+        TypedDate date = typedDate;
+        if (null == date || date.entry != entry) {
+            date = new TypedDate(entry, parseDate(entry));
+            typedDate = date;
+        }
+        
+        return date.value;
+    }
+    
+    /**
+     * Get the day of the document.
+     *
+     * @return days since 1970-01-01, or {@link #NO_DATE}
+     */
+    public long getDay()
+    {
+        return dayOf(getDate());
+    }
+    
+    /**
+     * Get the day that contains a given minute.
+     *
+     * @param date minutes since 1970-01-01 00:00, or {@link #NO_DATE}
+     * @return days since 1970-01-01, or {@link #NO_DATE}
+     */
+    public static long dayOf(long date)
+    {
+        if (NO_DATE == date) return NO_DATE;
+        
+        return floorDivide(date, MINUTES_PER_DAY);
+    }
+    
+    /**
+     * Give the value of a date entry, so that {@link #getDate()}
+     * does not need to parse it once the entry is in the metadata.
+     *
+     * @param entry the string added as {@link Metadata#date} entry
+     * @param value minutes since the epoch, or {@link #NO_DATE}
+     */
+    public void setDate(String entry, long value)
+    {
+        typedDate = new TypedDate(entry, value);
+    }
+    
+    /**
+     * Compute the number of days from 1970-01-01 to a date
+     * in the proleptic Gregorian calendar.
+     * An unknown month or day, given as 0, counts as the first one.
+     *
+     * @param year the year
+     * @param month the month from 1 to 12, or 0
+     * @param day the day of the month, or 0
+     * @return days since the epoch
+     */
+    public static long epochDay(int year, int month, int day)
+    {
+        if (month < 1) month = 1;
+        if (day   < 1) day   = 1;
+        long y = (month <= 2)? year - 1: year;
+        long era = floorDivide(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + ((month > 2)? -3: 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        
+        return era * 146097 + dayOfEra - 719468;
+    }
+    
+    /**
+     * Compute the minutes from 1970-01-01 00:00 to a date and time.
+     *
+     * The time never moves the date to another day:
+     * hours from 24 to 35 are taken as p.m. hours to which 12 was added
+     * twice, as in the "<tt>24:30 (p.m.)</tt>" entries written
+     * for "12.30 p.m." by earlier versions, and other times
+     * outside the day count as 0:00.
+     *
+     * @return minutes since the epoch, or {@link #NO_DATE} if the year is 0
+     * @see #epochDay(int, int, int)
+     */
+    public static long epochMinute(int year, int month, int day, int hour, int minute)
+    {
+        if (0 == year) return NO_DATE;
+        if (hour >= 24 && hour < 36) hour -= 12;
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            hour   = 0;
+            minute = 0;
+        }
+        
+        return epochDay(year, month, day) * MINUTES_PER_DAY + hour * 60 + minute;
+    }
+    
+    /**
+     * Compute the date of a day in the proleptic Gregorian calendar.
+     *
+     * @param day days since 1970-01-01
+     * @return year, month from 1 to 12, and day of the month
+     */
+    public static int[] civilDate(long day)
+    {
+        long z = day + 719468;
+        long era = floorDivide(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        long dayOfMonth = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        long month = (monthIndex < 10)? monthIndex + 3: monthIndex - 9;
+        long year = yearOfEra + era * 400 + ((month <= 2)? 1: 0);
+        
+        return new int[] { (int) year, (int) month, (int) dayOfMonth };
+    }
+    
+    /**
+     * Format a day as "<tt>yyyy-mm-dd</tt>".
+     *
+     * @param day days since 1970-01-01, or {@link #NO_DATE}
+     * @return the formatted day, or "<tt>....-..-..</tt>" for {@link #NO_DATE}
+     */
+    public static String formatDay(long day)
     {
-        String date, otherDate;
-        Metadata.Values values;
+        if (NO_DATE == day) return "....-..-..";
         
-        values = getMetadata().get(Metadata.date);
-        if (values != null) date = values.lastElement();
-        else                date = "....-..-..";
+        int[] date = civilDate(day);
+        StringBuilder text = new StringBuilder(10);
+        if (date[0] >= 0 && date[0] < 1000) text.append("0000".substring(Integer.toString(date[0]).length()));
+        text.append(date[0]).append('-');
+        if (date[1] < 10) text.append('0');
+        text.append(date[1]).append('-');
+        if (date[2] < 10) text.append('0');
+        text.append(date[2]);
         
-        values = other.getMetadata().get(Metadata.date);
-        if (values != null) otherDate = values.lastElement();
-        else                otherDate = "....-..-..";
+        return text.toString();
+    }
+    
+    /**
+     * Parse a date entry in the format written by the metadata extractor,
+     * "<tt>yyyy-mm-dd h:mm (a.m.)</tt>", where the time is optional
+     * and the year may be padded with spaces.
+     *
+     * @param entry the date entry
+     * @return minutes since the epoch, or {@link #NO_DATE}
+     *         if the entry does not have that format
+     */
+    public static long parseDate(CharSequence entry)
+    {
+        int[] fields = new int[5];
+        int length = entry.length();
+        int position = 0;
+        while (position < length && entry.charAt(position) == ' ') ++position;
+        for (int field = 0; field < fields.length; ++field) {
+            if (field > 0) {
+                char separator = (field < 3)? '-': (field == 3)? ' ': ':';
+                if (position >= length || entry.charAt(position) != separator) {
+                    if (field >= 3) break;
+                    return NO_DATE;
+                }
+                ++position;
+            }
+            int start = position;
+            int value = 0;
+            while (position < length && position - start < 9) {
+                char c = entry.charAt(position);
+                if (c < '0' || c > '9') break;
+                value = value * 10 + (c - '0');
+                ++position;
+            }
+            if (position == start) {
+                if (field >= 3) break;
+                return NO_DATE;
+            }
+            fields[field] = value;
+        }
+        
+        return epochMinute(fields[0], fields[1], fields[2], fields[3], fields[4]);
+    }
+    
+    private static long floorDivide(long a, long b)
+    {
+        long quotient = a / b;
+        if ((a % b != 0) && ((a < 0) != (b < 0))) --quotient;
         
-        return date.compareTo(otherDate);
+        return quotient;
+    }
+    
+    /**
+     * Order documents by date, those without date first.
+     */
+    public int compareTo(Document other)
+    {
+        long date      = getDate();
+        long otherDate = other.getDate();
+        
+        if      (date < otherDate) return -1;
+        else if (date > otherDate) return  1;
+        else                       return  0;
     }
     
     /**
@@ -266,15 +768,29 @@ public class Document
      * <br/>
      * The segment's attributes can be handled using the {@link Map} interface,
      * for instance {@link Map#put(Object, Object)} and {@link Map#get(Object)}
+     * <br/>
+     * The "pattern-name" attribute, which most segments have, is kept in
+     * a field of its own and the others only if present in a separate map.
+     * Segments obtained from a {@link SegmentList} are views of its content,
+     * and changes to their attributes are stored in the list.
      */
-    public static class Segment extends HashMap<String, String>
+    public static class Segment extends java.util.AbstractMap<String, String>
         implements java.lang.Comparable<Segment>
     {
+        public static final String PATTERN_NAME = "pattern-name";
+        
         protected int begin, end;
+        protected String type;
+        protected Map<String, String> attributes;
+        protected SegmentList list;
+        protected int index;
         
         public Segment(int begin, int end) {
             this.begin = begin;
             this.end   = end;
+            type       = null;
+            attributes = null;
+            list       = null;
         }
         
         public int getBegin() { return begin; }
@@ -288,6 +804,91 @@ public class Document
             else if (end   < other.end  ) return  1;
             else return 0;
         }
+        
+        public String get(Object key)
+        {
+            if (PATTERN_NAME.equals(key)) return type;
+            if (null == attributes) return null;
+            
+            return attributes.get(key);
+        }
+        
+        public boolean containsKey(Object key)
+        {
+            if (PATTERN_NAME.equals(key)) return type != null;
+            
+            return attributes != null && attributes.containsKey(key);
+        }
+        
+        public String put(String key, String value)
+        {
+            String previous;
+            if (PATTERN_NAME.equals(key) && value != null) {
+                previous = type;
+                type = value;
+                if (list != null) list.setType(index, value);
+            }
+            else if (PATTERN_NAME.equals(key)) {
+                previous = remove(key);
+            }
+            else {
+                if (null == attributes) {
+                    attributes = new HashMap<String, String>();
+                    if (list != null) list.setAttributes(index, attributes);
+                }
+                previous = attributes.put(key, value);
+            }
+            
+            return previous;
+        }
+        
+        public String remove(Object key)
+        {
+            String previous;
+            if (PATTERN_NAME.equals(key)) {
+                previous = type;
+                type = null;
+                if (list != null) list.setType(index, null);
+            }
+            else if (attributes != null) {
+                previous = attributes.remove(key);
+            }
+            else {
+                previous = null;
+            }
+            
+            return previous;
+        }
+        
+        public void clear()
+        {
+            remove(PATTERN_NAME);
+            if (attributes != null) attributes.clear();
+        }
+        
+        public int size()
+        {
+            int size = (type != null) ? 1 : 0;
+            if (attributes != null) {
+                size += attributes.size();
+                if (type != null && attributes.containsKey(PATTERN_NAME)) --size;
+            }
+            
+            return size;
+        }
+        
+        /**
+         * Get the attributes as a set of entries.
+         * The set is a copy and does not reflect later changes.
+         */
+        public java.util.Set<Map.Entry<String, String> > entrySet()
+        {
+            Map<String, String> all = new java.util.LinkedHashMap<String, String>();
+            if (type != null) all.put(PATTERN_NAME, type);
+            if (attributes != null) all.putAll(attributes);
+            
+            return java.util.Collections.unmodifiableMap(all).entrySet();
+        }
     }
     
     public class SegmentIterator
@@ -297,7 +898,7 @@ public class Document
         
         public SegmentIterator(Pattern pattern)
         {
-            matcher = pattern.matcher(plainText);
+            matcher = pattern.matcher(getText());
             findNext();
         }
         
@@ -334,34 +935,328 @@ public class Document
     
     /**
      * A list of document segments.
+     *
+     * The segments are stored in arrays of primitive values:
+     * begin and end offsets, and an index into a table of the pattern names
+     * used in the list. Other attributes are kept in a side table
+     * only for the segments that have them.
+     * <br/>
+     * Adding a {@link Segment} copies its content, so later changes to
+     * that object do not affect the list.
+     * The segments returned by {@link #get(int)} and the iterators are
+     * views that write changes back to the list, and are valid until
+     * the list is sorted or segments are inserted or removed before them.
+     * For large lists, {@link #getBegin(int)}, {@link #getEnd(int)},
+     * {@link #getType(int)} and {@link #add(int, int, String)}
+     * avoid creating segment objects.
      */
-    public static class SegmentList extends Vector<Segment>
+    public static class SegmentList extends java.util.AbstractList<Segment>
+        implements java.util.RandomAccess
     {
+        protected int size;
+        protected int[] begins, ends;
+        protected short[] types;
+        protected Vector<String> typeNames;
+        protected Map<Integer, Map<String, String> > attributes;
+        
         public SegmentList()
         {
+            this(16);
+        }
+        
+        public SegmentList(int capacity)
+        {
+            capacity = Math.max(1, capacity);
+            size   = 0;
+            begins = new int[capacity];
+            ends   = new int[capacity];
+            types  = new short[capacity];
+            typeNames  = new Vector<String>();
+            attributes = null;
         }
         
+        /**
+         * Create a list with a segment for each token found in the text,
+         * searching for each one after the end of the previous one.
+         * Tokens that are not found are skipped.
+         *
+         * @param tokens the tokens, in the order they appear in the text
+         * @param text the text where they come from
+         */
         public SegmentList(String[] tokens, String text)
         {
-            int begin, end;
+            this(tokens.length);
+            int begin, end = 0;
             for (int i = 0; i < tokens.length; ++i) {
-                begin = text.indexOf(tokens[i]);
+                begin = text.indexOf(tokens[i], end);
                 if (begin >= 0) {
                     end = begin + tokens[i].length();
-                    add(new Segment(begin, end));
-                    text = text.substring(end);
+                    add(begin, end, null);
+                }
+            }
+        }
+        
+        public int size()
+        {
+            return size;
+        }
+        
+        public int getBegin(int index)
+        {
+            checkIndex(index);
+            return begins[index];
+        }
+        
+        public int getEnd(int index)
+        {
+            checkIndex(index);
+            return ends[index];
+        }
+        
+        /**
+         * Get the "pattern-name" attribute of a segment.
+         */
+        public String getType(int index)
+        {
+            checkIndex(index);
+            short type = types[index];
+            
+            return (type < 0) ? null : typeNames.get(type);
+        }
+        
+        public Segment get(int index)
+        {
+            checkIndex(index);
+            Segment segment = new Segment(begins[index], ends[index]);
+            segment.type = getType(index);
+            if (attributes != null) segment.attributes = attributes.get(index);
+            if (null == segment.type && segment.attributes != null) {
+                segment.type = segment.attributes.get(Segment.PATTERN_NAME);
+            }
+            segment.list  = this;
+            segment.index = index;
+            
+            return segment;
+        }
+        
+        /**
+         * Append a segment given by its offsets and pattern name.
+         */
+        public void add(int begin, int end, String type)
+        {
+            ensureCapacity(size + 1);
+            begins[size] = begin;
+            ends[size]   = end;
+            types[size]  = typeIndex(type);
+            ++size;
+            ++modCount;
+        }
+        
+        public void add(int index, Segment segment)
+        {
+            if (index < 0 || index > size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            ensureCapacity(size + 1);
+            if (index < size) {
+                System.arraycopy(begins, index, begins, index + 1, size - index);
+                System.arraycopy(ends,   index, ends,   index + 1, size - index);
+                System.arraycopy(types,  index, types,  index + 1, size - index);
+                shiftAttributes(index, 1);
+            }
+            ++size;
+            ++modCount;
+            store(index, segment);
+        }
+        
+        public Segment set(int index, Segment segment)
+        {
+            Segment previous = get(index);
+            previous.list = null;
+            store(index, segment);
+            
+            return previous;
+        }
+        
+        public Segment remove(int index)
+        {
+            Segment previous = get(index);
+            previous.list = null;
+            if (attributes != null) attributes.remove(index);
+            int moved = size - index - 1;
+            if (moved > 0) {
+                System.arraycopy(begins, index + 1, begins, index, moved);
+                System.arraycopy(ends,   index + 1, ends,   index, moved);
+                System.arraycopy(types,  index + 1, types,  index, moved);
+                shiftAttributes(index + 1, -1);
+            }
+            --size;
+            ++modCount;
+            
+            return previous;
+        }
+        
+        public void clear()
+        {
+            size = 0;
+            attributes = null;
+            ++modCount;
+        }
+        
+        /**
+         * Sort the segments in the order given by {@link Segment#compareTo(Segment)},
+         * enclosing segments first, without creating segment objects.
+         * The sort is stable.
+         */
+        public void sort()
+        {
+            int[] order = new int[size];
+            for (int i = 0; i < size; ++i) order[i] = i;
+            mergeSort(order, new int[size], 0, size);
+            
+            int[]   sortedBegins = new int[begins.length];
+            int[]   sortedEnds   = new int[ends.length];
+            short[] sortedTypes  = new short[types.length];
+            Map<Integer, Map<String, String> > sortedAttributes = null;
+            if (attributes != null) sortedAttributes = new HashMap<Integer, Map<String, String> >();
+            for (int i = 0; i < size; ++i) {
+                int j = order[i];
+                sortedBegins[i] = begins[j];
+                sortedEnds[i]   = ends[j];
+                sortedTypes[i]  = types[j];
+                if (attributes != null && attributes.containsKey(j)) {
+                    sortedAttributes.put(i, attributes.get(j));
                 }
             }
+            begins = sortedBegins;
+            ends   = sortedEnds;
+            types  = sortedTypes;
+            attributes = sortedAttributes;
+            ++modCount;
+        }
+        
+        protected void mergeSort(int[] order, int[] buffer, int from, int to)
+        {
+            if (to - from < 2) return;
+            int middle = (from + to) >>> 1;
+            mergeSort(order, buffer, from, middle);
+            mergeSort(order, buffer, middle, to);
+            if (compare(order[middle - 1], order[middle]) <= 0) return;
+            System.arraycopy(order, from, buffer, from, to - from);
+            int i = from, j = middle, k = from;
+            while (i < middle && j < to) {
+                if (compare(buffer[j], buffer[i]) < 0) order[k++] = buffer[j++];
+                else                                   order[k++] = buffer[i++];
+            }
+            while (i < middle) order[k++] = buffer[i++];
+            while (j < to)     order[k++] = buffer[j++];
+        }
+        
+        protected int compare(int a, int b)
+        {
+            if      (begins[a] < begins[b]) return -1;
+            else if (begins[a] > begins[b]) return  1;
+            else if (ends[a]   > ends[b]  ) return -1;
+            else if (ends[a]   < ends[b]  ) return  1;
+            else return 0;
+        }
+        
+        protected void store(int index, Segment segment)
+        {
+            begins[index] = segment.begin;
+            ends[index]   = segment.end;
+            types[index]  = typeIndex(segment.type);
+            Map<String, String> extra = null;
+            if (segment.attributes != null && ! segment.attributes.isEmpty()) {
+                extra = new HashMap<String, String>(segment.attributes);
+            }
+            setAttributes(index, extra);
+            setType(index, segment.type);
+        }
+        
+        protected void setType(int index, String type)
+        {
+            types[index] = typeIndex(type);
+            if (types[index] < 0 && type != null) {
+                // The type table is full.
+                Map<String, String> extra = (attributes != null) ? attributes.get(index) : null;
+                if (null == extra) setAttributes(index, extra = new HashMap<String, String>());
+                extra.put(Segment.PATTERN_NAME, type);
+            }
+        }
+        
+        protected void setAttributes(int index, Map<String, String> extra)
+        {
+            if (null == extra) {
+                if (attributes != null) attributes.remove(index);
+                return;
+            }
+            if (null == attributes) attributes = new HashMap<Integer, Map<String, String> >();
+            attributes.put(index, extra);
+        }
+        
+        protected void shiftAttributes(int from, int offset)
+        {
+            if (null == attributes) return;
+            Map<Integer, Map<String, String> > shifted = new HashMap<Integer, Map<String, String> >();
+            for (Map.Entry<Integer, Map<String, String> > entry : attributes.entrySet()) {
+                int index = entry.getKey();
+                shifted.put(index >= from ? index + offset : index, entry.getValue());
+            }
+            attributes = shifted;
+        }
+        
+        protected short typeIndex(String type)
+        {
+            if (null == type) return -1;
+            for (int i = 0; i < typeNames.size(); ++i) {
+                String name = typeNames.get(i);
+                if (name == type || name.equals(type)) return (short) i;
+            }
+            if (typeNames.size() >= Short.MAX_VALUE) return -1;
+            typeNames.add(type);
+            
+            return (short) (typeNames.size() - 1);
+        }
+        
+        protected void ensureCapacity(int capacity)
+        {
+            if (capacity <= begins.length) return;
+            int length = Math.max(capacity, begins.length * 3 / 2 + 1);
+            int[]   newBegins = new int[length];
+            int[]   newEnds   = new int[length];
+            short[] newTypes  = new short[length];
+            System.arraycopy(begins, 0, newBegins, 0, size);
+            System.arraycopy(ends,   0, newEnds,   0, size);
+            System.arraycopy(types,  0, newTypes,  0, size);
+            begins = newBegins;
+            ends   = newEnds;
+            types  = newTypes;
+        }
+        
+        protected void checkIndex(int index)
+        {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
         }
     }
     
     /**
      * A table of patterns.
+     *
+     * The patterns are compiled into a {@link MultiPatternMatcher}
+     * the first time the table is used for segmenting, and again
+     * after any change, also through {@link #putAll(Map)}, the views
+     * or their iterators.
+     * Word lists added with {@link #putWords(String, Vector)}
+     * are matched directly by the automaton, so they can be large.
      */
     public static class PatternTable extends HashMap<String, Pattern>
     {
         public static final int CASE_INSENSITIVE = Pattern.UNICODE_CASE | Pattern.CASE_INSENSITIVE;
         
+        protected Map<String, Vector<String> > words = new HashMap<String, Vector<String> >();
+        protected Map<String, Pattern> wordPatterns = new HashMap<String, Pattern>();
+        protected MultiPatternMatcher matcher;
+        protected Map<String, Pattern> compiled;
+        
         public void put(String name, String pattern)
         {
             put(name, pattern, false);
@@ -377,15 +1272,77 @@ public class Document
             }
         }
         
-        public void putWords(String name, Vector<String> words)
+        public synchronized Pattern put(String name, Pattern pattern)
+        {
+            words.remove(name);
+            wordPatterns.remove(name);
+            matcher = null;
+            
+            return super.put(name, pattern);
+        }
+        
+        public synchronized Pattern remove(Object name)
+        {
+            words.remove(name);
+            wordPatterns.remove(name);
+            matcher = null;
+            
+            return super.remove(name);
+        }
+        
+        public synchronized void clear()
         {
-            String pattern = "\\b(";
+            words.clear();
+            wordPatterns.clear();
+            matcher = null;
+            super.clear();
+        }
+        
+        /**
+         * Add a pattern that matches any of the given words
+         * between word boundaries.
+         * The words are taken literally, and the first one in the
+         * list wins when several start at the same position.
+         */
+        public synchronized void putWords(String name, Vector<String> words)
+        {
+            StringBuilder pattern = new StringBuilder("\\b(");
             for (String word : words) {
-                pattern += "|" + word;
+                if (0 == word.length()) continue;
+                if (pattern.length() > 3) pattern.append('|');
+                pattern.append(Pattern.quote(word));
             }
-            pattern += ")\\b";
+            pattern.append(")\\b");
             
-            put(name, pattern);
+            put(name, pattern.toString());
+            this.words.put(name, new Vector<String>(words));
+            wordPatterns.put(name, get(name));
+        }
+        
+        /**
+         * Get the compiled matcher for the current patterns.
+         *
+         * Changes made with {@link #putAll(Map)}, through the views or
+         * their iterators do not go through {@link #put(String, Pattern)}
+         * or {@link #remove(Object)}, so the patterns are also compared
+         * with those the matcher was compiled from.
+         */
+        public synchronized MultiPatternMatcher getMatcher()
+        {
+            if (null == matcher || ! compiled.equals(this)) {
+                // A word list only applies while its pattern is still there.
+                for (Iterator<Map.Entry<String, Pattern> > i = wordPatterns.entrySet().iterator(); i.hasNext(); ) {
+                    Map.Entry<String, Pattern> entry = i.next();
+                    if (get(entry.getKey()) != entry.getValue()) {
+                        words.remove(entry.getKey());
+                        i.remove();
+                    }
+                }
+                compiled = new HashMap<String, Pattern>(this);
+                matcher  = new MultiPatternMatcher(this, words);
+            }
+            
+            return matcher;
         }
     }
     
@@ -398,6 +1355,7 @@ public class Document
      *        "pattern-name" set to the corresponding name string.
      * @return segments that match the pattern, ordered by
      *         enclosing segment first
+     * @see MultiPatternMatcher
      *
      *
      * <hr/>
@@ -461,20 +1419,15 @@ public class Document
      */
     public SegmentList segment(Map<String, Pattern> patterns)
     {
-        SegmentList segments = new SegmentList();
-        
-        for (Map.Entry<String, Pattern> entry : patterns.entrySet()) {
-            SegmentIterator i = new SegmentIterator(entry.getValue());
-            while (i.hasNext()) {
-                Segment segment = i.next();
-                segment.put("pattern-name", entry.getKey());
-                segments.add(segment);
-            }
+        MultiPatternMatcher matcher;
+        if (patterns instanceof PatternTable) {
+            matcher = ((PatternTable) patterns).getMatcher();
+        }
+        else {
+            matcher = new MultiPatternMatcher(patterns);
         }
         
-        java.util.Collections.sort(segments);
-        
-        return segments;
+        return matcher.segment(getText());
     }
     
     /**
@@ -510,6 +1463,7 @@ public class Document
     {
         org.w3c.dom.Document xmlDocument = format.createDocument();
         Element root = format.getContentElement();
+        CharSequence plainText = getLoadedText();
         
         if (plainText != null) {
             java.util.Stack<Segment> stack = new java.util.Stack<Segment>();
@@ -681,10 +1635,10 @@ public class Document
             return currentPageNumber;
         }
         
-        public int appendText(Element element, String text, int begin, int end)
+        public int appendText(Element element, CharSequence text, int begin, int end)
         {
             if (begin >= 0 && begin < end && end <= text.length()) {
-                appendText(element, text.substring(begin, end));
+                appendText(element, text.subSequence(begin, end).toString());
                 return end;
             }
             else {
@@ -798,9 +1752,25 @@ public class Document
     public static class Collection
         implements java.lang.Iterable<Document>
     {
-        private java.util.Vector<Document> sortedDocuments;
+        private volatile SortedIndex sorted;
         private Map<String, Document> documents;
         
+        /**
+         * Documents in date order together with their dates,
+         * replaced as a whole so that readers never see one
+         * of them from a different sort than the other.
+         */
+        private static class SortedIndex
+        {
+            final java.util.Vector<Document> documents;
+            final long[] dates;
+            SortedIndex(java.util.Vector<Document> documents, long[] dates)
+            {
+                this.documents = documents;
+                this.dates     = dates;
+            }
+        }
+        
         /**
          * Constructs a collection from the files found in a directory.
          *
@@ -810,34 +1780,260 @@ public class Document
          */
         public Collection(File directory)
         {
-            documents = new HashMap<String, Document>();
-            sortedDocuments = null;
+            this(directory, false);
+        }
+        
+        /**
+         * Constructs a collection from the files found in a directory,
+         * optionally keeping the document texts in memory-mapped storage.
+         *
+         * @param directory where the document files are
+         * @param memoryMapped whether the documents' text should be kept
+         *        out of the Java heap, see {@link Document#setMemoryMapped(boolean)}
+         */
+        public Collection(File directory, boolean memoryMapped)
+        {
+            this();
+            new Loader().setMemoryMapped(memoryMapped).load(this, directory);
+        }
+        
+        /**
+         * Constructs an empty collection, to be filled by a {@link Loader}.
+         */
+        public Collection()
+        {
+            documents = new java.util.concurrent.ConcurrentHashMap<String, Document>();
+            sorted = null;
+        }
+        
+        /**
+         * Receives progress notifications while a collection is loaded.
+         *
+         * The notifications come from the loader threads,
+         * so implementations must be thread-safe.
+         */
+        public interface LoadListener
+        {
+            /**
+             * Called after each document is added to the collection.
+             *
+             * @param document the document just added
+             * @param count how many documents have been added so far
+             * @param total how many documents will be added in total
+             */
+            public void documentLoaded(Document document, int count, int total);
+        }
+        
+        /**
+         * Loads the files found in a directory into a collection,
+         * scanning the directories and reading the files in parallel.
+         *
+         * The options are set with chained calls, for instance:
+         * <pre>
+         * Document.Collection documents = new Document.Collection.Loader()
+         *     .setRecursive(true)
+         *     .setPreload(true)
+         *     .load(directory);
+         * </pre>
+         */
+        public static class Loader
+        {
+            protected boolean memoryMapped = false;
+            protected boolean recursive = false;
+            protected boolean preload = false;
+            protected java.util.concurrent.ExecutorService executor = null;
+            protected LoadListener listener = null;
             
-            if (! directory.exists()) {
-                System.err.println("Directory not found: " + directory.getAbsolutePath());
-                
-                return;
+            /**
+             * Keep the document texts in memory-mapped storage.
+             * See {@link Document#setMemoryMapped(boolean)}.
+             */
+            public Loader setMemoryMapped(boolean memoryMapped)
+            {
+                this.memoryMapped = memoryMapped;
+                return this;
+            }
+            
+            /**
+             * Load also the files in subdirectories.
+             *
+             * The identifiers of documents in subdirectories include
+             * their path relative to the collection directory.
+             */
+            public Loader setRecursive(boolean recursive)
+            {
+                this.recursive = recursive;
+                return this;
             }
             
-            Document document;
-            String identifier;
-            File[] files = directory.listFiles();
+            /**
+             * Read the document texts while loading, instead of
+             * the first time each text is requested.
+             */
+            public Loader setPreload(boolean preload)
+            {
+                this.preload = preload;
+                return this;
+            }
+            
+            /**
+             * Run the loading tasks in the given executor.
+             * By default a thread pool with one thread per processor
+             * is created and shut down when done.
+             */
+            public Loader setExecutor(java.util.concurrent.ExecutorService executor)
+            {
+                this.executor = executor;
+                return this;
+            }
+            
+            public Loader setListener(LoadListener listener)
+            {
+                this.listener = listener;
+                return this;
+            }
+            
+            /**
+             * Create a new collection from the files in a directory.
+             *
+             * @param directory where the document files are
+             * @return the collection
+             */
+            public Collection load(File directory)
+            {
+                Collection collection = new Collection();
+                load(collection, directory);
+                
+                return collection;
+            }
             
-            for (int i = 0; i < files.length; ++i) {
-                System.err.println("Loading file " + (i+1) + " of " + files.length + ": " + files[i].getName());
-                document = null;
+            /**
+             * Add the files in a directory to a collection.
+             *
+             * Since the {@link Document} class only supports plain text files
+             * for now, the only files that are loaded are those whose name
+             * ends with the extension "<tt>.txt</tt>".
+             *
+             * @param collection where to add the documents
+             * @param directory where the document files are
+             */
+            public void load(final Collection collection, File directory)
+            {
+                if (! directory.exists()) {
+                    System.err.println("Directory not found: " + directory.getAbsolutePath());
+                    
+                    return;
+                }
+                
+                java.util.concurrent.ExecutorService pool = executor;
+                if (null == pool) {
+                    pool = java.util.concurrent.Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                }
+                
                 try {
-                    if (files[i].getName().endsWith(".txt")) { 
-                        document = new Document(files[i], null);
-                    }
+                    Vector<String> paths = scan(pool, directory);
+                    load(pool, collection, directory, paths);
                 }
-                catch (java.io.FileNotFoundException e) {
-                    System.err.println("File not found: " + files[i].getName());
+                catch (InterruptedException e) {
+                    System.err.println("Collection loading interrupted");
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    if (null == executor) pool.shutdownNow();
+                }
+                collection.sorted = null;
+            }
+            
+            /**
+             * Find the document files, listing the directories
+             * of each level in parallel.
+             *
+             * @return paths of the files relative to the directory
+             */
+            protected Vector<String> scan(java.util.concurrent.ExecutorService pool, final File directory)
+                throws InterruptedException
+            {
+                Vector<String> paths = new Vector<String>();
+                Vector<String> level = new Vector<String>();
+                level.add("");
+                while (! level.isEmpty()) {
+                    Vector<java.util.concurrent.Future<File[]> > listings = new Vector<java.util.concurrent.Future<File[]> >();
+                    for (final String prefix : level) {
+                        listings.add(pool.submit(new java.util.concurrent.Callable<File[]>() {
+                                public File[] call()
+                                {
+                                    return new File(directory, prefix).listFiles();
+                                }
+                            }));
+                    }
+                    Vector<String> nextLevel = new Vector<String>();
+                    for (int i = 0; i < listings.size(); ++i) {
+                        File[] files = get(listings.get(i));
+                        if (null == files) continue;
+                        for (File file : files) {
+                            String path = level.get(i) + file.getName();
+                            if (file.getName().endsWith(".txt")) {
+                                paths.add(path);
+                            }
+                            else if (recursive && file.isDirectory()) {
+                                nextLevel.add(path + File.separator);
+                            }
+                        }
+                    }
+                    level = nextLevel;
                 }
                 
-                if (document != null) {
-                    identifier = files[i].getName();
-                    documents.put(identifier, document);
+                return paths;
+            }
+            
+            protected void load(java.util.concurrent.ExecutorService pool, final Collection collection, final File directory, Vector<String> paths)
+                throws InterruptedException
+            {
+                final int total = paths.size();
+                final java.util.concurrent.atomic.AtomicInteger count = new java.util.concurrent.atomic.AtomicInteger(0);
+                Vector<java.util.concurrent.Future<?> > tasks = new Vector<java.util.concurrent.Future<?> >();
+                for (final String path : paths) {
+                    tasks.add(pool.submit(new Runnable() {
+                            public void run()
+                            {
+                                File file = new File(directory, path);
+                                String identifier = null;
+                                if (path.indexOf(File.separatorChar) >= 0) {
+                                    identifier = path.substring(0, path.length() - 4);
+                                }
+                                Document document;
+                                try {
+                                    document = new Document(file, identifier);
+                                }
+                                catch (java.io.FileNotFoundException e) {
+                                    System.err.println("File not found: " + path);
+                                    return;
+                                }
+                                document.setMemoryMapped(memoryMapped);
+                                if (preload) document.getText();
+                                collection.documents.put(path, document);
+                                if (listener != null) {
+                                    listener.documentLoaded(document, count.incrementAndGet(), total);
+                                }
+                            }
+                        }));
+                }
+                try {
+                    for (java.util.concurrent.Future<?> task : tasks) get(task);
+                }
+                finally {
+                    for (java.util.concurrent.Future<?> task : tasks) task.cancel(true);
+                }
+            }
+            
+            protected <T> T get(java.util.concurrent.Future<T> task)
+                throws InterruptedException
+            {
+                try {
+                    return task.get();
+                }
+                catch (java.util.concurrent.ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
                 }
             }
         }
@@ -847,20 +2043,152 @@ public class Document
             return documents.size();
         }
         
+        /**
+         * Sort the documents by date, as given by {@link Document#getDate()},
+         * and keep their dates in an index for
+         * {@link #indexOfDate(long)} and {@link #getDocuments(long, long)}.
+         * The sort is stable, and each date entry is parsed only once.
+         */
         public void sort()
         {
-            sortedDocuments = new java.util.Vector<Document>();
-            for (Document document : documents.values()) {
-                sortedDocuments.add(document);
+            index();
+        }
+        
+        /**
+         * Get the current sorted index, sorting the collection if needed.
+         */
+        private SortedIndex sortedIndex()
+        {
+            SortedIndex index = sorted;
+            
+            return (index != null) ? index : index();
+        }
+        
+        /**
+         * Sort the documents and publish the new index.
+         */
+        private SortedIndex index()
+        {
+            Document[] unsorted = documents.values().toArray(new Document[0]);
+            long[] dates = new long[unsorted.length];
+            int[] order = new int[unsorted.length];
+            for (int i = 0; i < unsorted.length; ++i) {
+                dates[i] = unsorted[i].getDate();
+                order[i] = i;
+            }
+            mergeSort(order, new int[order.length], dates, 0, order.length);
+            
+            java.util.Vector<Document> sortedDocuments = new java.util.Vector<Document>(unsorted.length);
+            long[] sortedDates = new long[unsorted.length];
+            for (int i = 0; i < order.length; ++i) {
+                sortedDocuments.add(unsorted[order[i]]);
+                sortedDates[i] = dates[order[i]];
             }
-            java.util.Collections.sort(sortedDocuments);
+            SortedIndex index = new SortedIndex(sortedDocuments, sortedDates);
+            sorted = index;
+            
+            return index;
         }
         
-        public Document get(int index)
+        private static void mergeSort(int[] order, int[] buffer, long[] keys, int from, int to)
+        {
+            if (to - from < 2) return;
+            int middle = (from + to) >>> 1;
+            mergeSort(order, buffer, keys, from, middle);
+            mergeSort(order, buffer, keys, middle, to);
+            if (keys[order[middle - 1]] <= keys[order[middle]]) return;
+            System.arraycopy(order, from, buffer, from, to - from);
+            int i = from, j = middle, k = from;
+            while (i < middle && j < to) {
+                if (keys[buffer[j]] < keys[buffer[i]]) order[k++] = buffer[j++];
+                else                                   order[k++] = buffer[i++];
+            }
+            while (i < middle) order[k++] = buffer[i++];
+            while (j < to)     order[k++] = buffer[j++];
+        }
+        
+        /**
+         * Find where a date falls in the sorted collection,
+         * with a binary search in the date index.
+         *
+         * @param date minutes since the epoch, see {@link Document#getDate()}
+         * @return index of the first document dated at or after the given date,
+         *         or {@link #size()} if all are earlier
+         */
+        public int indexOfDate(long date)
+        {
+            return indexOfDate(sortedIndex(), date);
+        }
+        
+        private static int indexOfDate(SortedIndex index, long date)
+        {
+            long[] dates = index.dates;
+            int low = 0, high = dates.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (dates[middle] < date) low  = middle + 1;
+                else                      high = middle;
+            }
+            
+            return low;
+        }
+        
+        /**
+         * Find the position of a document in the sorted collection,
+         * which is its column in the radar.
+         *
+         * @param document the document to find
+         * @return index for {@link #get(int)}, or -1 if not in the collection
+         */
+        public int indexOf(Document document)
         {
-            if (null == sortedDocuments) sort();
+            SortedIndex sorted = sortedIndex();
+            long date = document.getDate();
+            for (int index = indexOfDate(sorted, date); index < sorted.dates.length && sorted.dates[index] == date; ++index) {
+                if (sorted.documents.get(index) == document) return index;
+            }
             
-            return sortedDocuments.get(index);
+            return -1;
+        }
+        
+        /**
+         * Get the date of the document at the given position
+         * without going through its metadata.
+         *
+         * @param index position in the sorted collection
+         * @return minutes since the epoch, or {@link Document#NO_DATE}
+         */
+        public long getDate(int index)
+        {
+            return sortedIndex().dates[index];
+        }
+        
+        /**
+         * Get the documents dated in a range of days, in date order.
+         * For instance, all minutes from March 1916 to January 1917:
+         * <pre>
+         * collection.getDocuments(Document.epochDay(1916, 3, 1),
+         *                         Document.epochDay(1917, 2, 1));
+         * </pre>
+         *
+         * @param fromDay first day of the range, as days since 1970-01-01,
+         *        see {@link Document#epochDay(int, int, int)}
+         * @param toDay first day after the range
+         * @return the documents, as a view of the sorted collection
+         */
+        public java.util.List<Document> getDocuments(long fromDay, long toDay)
+        {
+            SortedIndex sorted = sortedIndex();
+            int from = indexOfDate(sorted, fromDay * MINUTES_PER_DAY);
+            int to   = indexOfDate(sorted, toDay   * MINUTES_PER_DAY);
+            if (to < from) to = from;
+            
+            return sorted.documents.subList(from, to);
+        }
+        
+        public Document get(int index)
+        {
+            return sortedIndex().documents.get(index);
         }
         
         /**
@@ -870,9 +2198,7 @@ public class Document
          */
         public Iterator<Document> iterator()
         {
-            if (null == sortedDocuments) sort();
-            
-            return sortedDocuments.iterator();
+            return sortedIndex().documents.iterator();
         }
         
         /**
@@ -0,0 +1,284 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.Vector;
+
+/**
+ * Mentions of each entity in the documents of a collection.
+ *
+ * The index is filled from the annotation results with
+ * {@link #put(Document, Document.SegmentList)}, one document at a time
+ * as they get annotated, replacing what was there for the document.
+ * From then on the entity counts of a document, the documents that
+ * mention an entity, and the places where they do, are read from the
+ * index without going through the text again.
+ */
+public class EntityIndex
+{
+    /**
+     * Mentions of one entity in one document.
+     */
+    public static class Posting
+    {
+        protected final Document document;
+        protected int[] offsets;
+        protected int count;
+        
+        public Posting(Document document)
+        {
+            this.document = document;
+            offsets = new int[4];
+            count = 0;
+        }
+        
+        protected void add(int begin, int end)
+        {
+            if (2 * count == offsets.length) {
+                int[] grown = new int[offsets.length * 2];
+                System.arraycopy(offsets, 0, grown, 0, offsets.length);
+                offsets = grown;
+            }
+            offsets[2 * count]     = begin;
+            offsets[2 * count + 1] = end;
+            ++count;
+        }
+        
+        /** @return the document */
+        public Document getDocument() { return document; }
+        /** @return number of mentions */
+        public int getCount()         { return count; }
+        /** @return offset of the given mention in the document text */
+        public int getBegin(int index) { return offsets[2 * index]; }
+        /** @return offset after the end of the given mention */
+        public int getEnd(int index)   { return offsets[2 * index + 1]; }
+    }
+    
+    // entity -> document identifier -> posting
+    protected Map<String, Map<String, Posting> > documentsOfEntity;
+    // document identifier -> entity -> posting
+    protected Map<String, Map<String, Posting> > entitiesOfDocument;
+    protected boolean byType;
+    
+    /**
+     * Constructs an empty index of the entities by their text.
+     */
+    public EntityIndex()
+    {
+        this(false);
+    }
+    
+    /**
+     * Constructs an empty index.
+     *
+     * @param byType whether to index the segments by their type,
+     *        see {@link Document.SegmentList#getType(int)},
+     *        instead of by their text
+     */
+    public EntityIndex(boolean byType)
+    {
+        documentsOfEntity  = new HashMap<String, Map<String, Posting> >();
+        entitiesOfDocument = new HashMap<String, Map<String, Posting> >();
+        this.byType = byType;
+    }
+    
+    /**
+     * Index the entities found in a document, replacing those
+     * indexed before for it.
+     *
+     * @param document the annotated document
+     * @param segments the entities found in it
+     */
+    public synchronized void put(Document document, Document.SegmentList segments)
+    {
+        remove(document);
+        
+        Map<String, Posting> entities = new HashMap<String, Posting>();
+        CharSequence text = document.getText();
+        for (int i = 0; i < segments.size(); ++i) {
+            int begin = segments.getBegin(i);
+            int end   = segments.getEnd(i);
+            String entity;
+            if (byType) entity = segments.getType(i);
+            else        entity = text.subSequence(begin, end).toString();
+            if (null == entity) continue;
+            Posting posting = entities.get(entity);
+            if (null == posting) {
+                entities.put(entity, posting = new Posting(document));
+                Map<String, Posting> documents = documentsOfEntity.get(entity);
+                if (null == documents) {
+                    documentsOfEntity.put(entity, documents = new HashMap<String, Posting>());
+                }
+                documents.put(document.getIdentifier(), posting);
+            }
+            posting.add(begin, end);
+        }
+        entitiesOfDocument.put(document.getIdentifier(), entities);
+    }
+    
+    /**
+     * Add the mentions of one entity in one document, such as the
+     * matches of a search, without changing the other entities
+     * of the document.
+     *
+     * @param entity the entity
+     * @param posting where the entity is mentioned in the document
+     */
+    public synchronized void add(String entity, Posting posting)
+    {
+        String identifier = posting.getDocument().getIdentifier();
+        Map<String, Posting> entities = entitiesOfDocument.get(identifier);
+        if (null == entities) {
+            entitiesOfDocument.put(identifier, entities = new HashMap<String, Posting>());
+        }
+        entities.put(entity, posting);
+        Map<String, Posting> documents = documentsOfEntity.get(entity);
+        if (null == documents) {
+            documentsOfEntity.put(entity, documents = new HashMap<String, Posting>());
+        }
+        documents.put(identifier, posting);
+    }
+    
+    /**
+     * Remove a document from the index.
+     *
+     * @param document the document
+     */
+    public synchronized void remove(Document document)
+    {
+        Map<String, Posting> entities = entitiesOfDocument.remove(document.getIdentifier());
+        if (null == entities) return;
+        
+        for (String entity : entities.keySet()) {
+            Map<String, Posting> documents = documentsOfEntity.get(entity);
+            documents.remove(document.getIdentifier());
+            if (documents.isEmpty()) documentsOfEntity.remove(entity);
+        }
+    }
+    
+    /**
+     * Whether a document has been indexed.
+     *
+     * @param document the document
+     * @return <code>true</code> if the document is in the index,
+     *         even if no entities were found in it
+     */
+    public synchronized boolean contains(Document document)
+    {
+        return entitiesOfDocument.containsKey(document.getIdentifier());
+    }
+    
+    /**
+     * Get all the entities in the index.
+     *
+     * @return the entities in alphabetical order
+     */
+    public synchronized SortedSet<String> getEntities()
+    {
+        return new TreeSet<String>(documentsOfEntity.keySet());
+    }
+    
+    /**
+     * Count the mentions of each entity in a document.
+     *
+     * @param document the document
+     * @return number of mentions indexed by entity,
+     *         empty if the document is not in the index
+     */
+    public synchronized Map<String, Integer> getCounts(Document document)
+    {
+        Map<String, Integer> counts = new Hashtable<String, Integer>();
+        addCounts(document, counts);
+        
+        return counts;
+    }
+    
+    /**
+     * Add the mentions of each entity in a document to the given counts.
+     *
+     * @param document the document
+     * @param counts number of mentions indexed by entity
+     */
+    public synchronized void addCounts(Document document, Map<String, Integer> counts)
+    {
+        Map<String, Posting> entities = entitiesOfDocument.get(document.getIdentifier());
+        if (null == entities) return;
+        
+        for (Map.Entry<String, Posting> entry : entities.entrySet()) {
+            Integer count = counts.get(entry.getKey());
+            if (null == count) counts.put(entry.getKey(), entry.getValue().getCount());
+            else               counts.put(entry.getKey(), count + entry.getValue().getCount());
+        }
+    }
+    
+    /**
+     * Get the mentions of an entity in all documents.
+     *
+     * @param entity the entity as found in the text
+     * @return one posting for each document that mentions the entity,
+     *         in no particular order
+     */
+    public synchronized Collection<Posting> getPostings(String entity)
+    {
+        Map<String, Posting> documents = documentsOfEntity.get(entity);
+        if (null == documents) return new Vector<Posting>();
+        
+        return new Vector<Posting>(documents.values());
+    }
+    
+    /**
+     * Get the mentions of an entity in a document.
+     *
+     * @param entity the entity as found in the text
+     * @param document the document
+     * @return the posting, or <code>null</code> if the document
+     *         does not mention the entity
+     */
+    public synchronized Posting getPosting(String entity, Document document)
+    {
+        Map<String, Posting> entities = entitiesOfDocument.get(document.getIdentifier());
+        if (null == entities) return null;
+        
+        return entities.get(entity);
+    }
+    
+    /**
+     * Count the documents that mention an entity.
+     *
+     * @param entity the entity as found in the text
+     * @return number of documents
+     */
+    public synchronized int getDocumentCount(String entity)
+    {
+        Map<String, Posting> documents = documentsOfEntity.get(entity);
+        if (null == documents) return 0;
+        
+        return documents.size();
+    }
+}
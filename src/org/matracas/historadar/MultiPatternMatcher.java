@@ -0,0 +1,501 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the matches of many named patterns in a single pass over a text.
+ *
+ * Patterns that are alternations of literal words between word boundaries,
+ * such as <code>\b(Paris|Rome|the Balkans)\b</code>, and word lists,
+ * are compiled together into Aho-Corasick automata, one for each kind
+ * of case sensitivity. Each automaton scans the text once regardless
+ * of the number of words. The other patterns are matched with
+ * {@link java.util.regex.Matcher} as usual.
+ * <br/>
+ * The results are the same as those of matching each pattern
+ * separately: for each pattern, the leftmost match is taken and the
+ * search continues after its end, and among words starting at the same
+ * position the first one in the alternation wins.
+ * The segments are produced already in the order of
+ * {@link Document.Segment#compareTo(Document.Segment)}, with equal
+ * segments in the order of the patterns.
+ */
+public class MultiPatternMatcher
+{
+    protected static final int CASE_SENSITIVE = 0;
+    protected static final int CASE_INSENSITIVE_ASCII = 1;
+    protected static final int CASE_INSENSITIVE_UNICODE = 2;
+    
+    protected String[] names;
+    protected Pattern[] regexps;
+    protected String[][] alternatives;
+    protected Automaton[] automata;
+    
+    /**
+     * Compile the given patterns.
+     *
+     * @param patterns map from names to patterns
+     */
+    public MultiPatternMatcher(Map<String, Pattern> patterns)
+    {
+        this(patterns, null);
+    }
+    
+    /**
+     * Compile the given patterns and word lists.
+     *
+     * @param patterns map from names to patterns
+     * @param words map from names to lists of words that are matched
+     *        literally between word boundaries, instead of the pattern
+     *        with the same name if any.
+     *        May be <code>null</code>.
+     */
+    public MultiPatternMatcher(Map<String, Pattern> patterns, Map<String, ? extends Collection<String> > words)
+    {
+        int count = patterns.size();
+        if (words != null) {
+            for (String name : words.keySet()) if (! patterns.containsKey(name)) ++count;
+        }
+        names        = new String[count];
+        regexps      = new Pattern[count];
+        alternatives = new String[count][];
+        automata     = new Automaton[3];
+        
+        int index = 0;
+        for (Map.Entry<String, Pattern> entry : patterns.entrySet()) {
+            names[index] = entry.getKey();
+            Collection<String> list = (words != null) ? words.get(entry.getKey()) : null;
+            if (list != null) {
+                addWords(index, list.toArray(new String[list.size()]), CASE_SENSITIVE);
+            }
+            else {
+                String[] literals = literalAlternatives(entry.getValue().pattern());
+                int mode = caseMode(entry.getValue().flags());
+                if (literals != null && mode >= 0) addWords(index, literals, mode);
+                else                                regexps[index] = entry.getValue();
+            }
+            ++index;
+        }
+        if (words != null) {
+            for (Map.Entry<String, ? extends Collection<String> > entry : words.entrySet()) {
+                if (patterns.containsKey(entry.getKey())) continue;
+                names[index] = entry.getKey();
+                Collection<String> list = entry.getValue();
+                addWords(index, list.toArray(new String[list.size()]), CASE_SENSITIVE);
+                ++index;
+            }
+        }
+        
+        for (Automaton automaton : automata) if (automaton != null) automaton.build();
+    }
+    
+    protected void addWords(int pattern, String[] words, int mode)
+    {
+        alternatives[pattern] = words;
+        if (null == automata[mode]) automata[mode] = new Automaton(mode);
+        for (int i = 0; i < words.length; ++i) {
+            if (words[i].length() > 0) automata[mode].add(words[i], pattern, i);
+        }
+    }
+    
+    /**
+     * Find which case folding to use for the given pattern flags.
+     *
+     * @return the mode, or -1 if the flags require a regular expression
+     */
+    protected static int caseMode(int flags)
+    {
+        if (0 == flags) return CASE_SENSITIVE;
+        if (Pattern.CASE_INSENSITIVE == flags) return CASE_INSENSITIVE_ASCII;
+        if ((Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE) == flags) return CASE_INSENSITIVE_UNICODE;
+        
+        return -1;
+    }
+    
+    /**
+     * Extract the words from a regular expression of the form
+     * <code>\b(word|word|...)\b</code> or <code>\b(?:word|word|...)\b</code>
+     * where the words contain no special characters
+     * other than escaped punctuation.
+     *
+     * @return the words, or <code>null</code> if the pattern has another form
+     */
+    protected static String[] literalAlternatives(String pattern)
+    {
+        String body;
+        if (pattern.startsWith("\\b(?:") && pattern.endsWith(")\\b")) {
+            body = pattern.substring(5, pattern.length() - 3);
+        }
+        else if (pattern.startsWith("\\b(") && pattern.endsWith(")\\b")) {
+            body = pattern.substring(3, pattern.length() - 3);
+        }
+        else {
+            return null;
+        }
+        
+        Vector<String> words = new Vector<String>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < body.length(); ++i) {
+            char c = body.charAt(i);
+            if ('\\' == c) {
+                if (++i >= body.length()) return null;
+                c = body.charAt(i);
+                if (Character.isLetterOrDigit(c)) return null;
+                word.append(c);
+            }
+            else if ('|' == c) {
+                if (0 == word.length()) return null;
+                words.add(word.toString());
+                word.setLength(0);
+            }
+            else if ("()[]{}.*+?^$".indexOf(c) >= 0) {
+                return null;
+            }
+            else {
+                word.append(c);
+            }
+        }
+        if (0 == word.length()) return null;
+        words.add(word.toString());
+        
+        return words.toArray(new String[words.size()]);
+    }
+    
+    /**
+     * Check whether a character is part of a word for <code>\b</code>:
+     * letters, digits and the underscore, and also non-spacing marks
+     * such as combining accents when they follow a letter or digit.
+     */
+    protected static boolean isWordCharacter(CharSequence text, int index)
+    {
+        char c = text.charAt(index);
+        if (Character.isLetterOrDigit(c) || '_' == c) return true;
+        while (Character.NON_SPACING_MARK == Character.getType(c)) {
+            if (--index < 0) return false;
+            c = text.charAt(index);
+            if (Character.isLetterOrDigit(c)) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Check for a word boundary as <code>\b</code> does.
+     */
+    protected static boolean isBoundary(CharSequence text, int position)
+    {
+        boolean before = position > 0             && isWordCharacter(text, position - 1);
+        boolean after  = position < text.length() && isWordCharacter(text, position);
+        
+        return before != after;
+    }
+    
+    /**
+     * Growable list of matches for one pattern.
+     */
+    protected static class Matches
+    {
+        protected int size = 0;
+        protected int[] begins = new int[16];
+        protected int[] ends   = new int[16];
+        
+        protected void add(int begin, int end)
+        {
+            if (size == begins.length) {
+                int[] newBegins = new int[size * 2];
+                int[] newEnds   = new int[size * 2];
+                System.arraycopy(begins, 0, newBegins, 0, size);
+                System.arraycopy(ends,   0, newEnds,   0, size);
+                begins = newBegins;
+                ends   = newEnds;
+            }
+            begins[size] = begin;
+            ends[size]   = end;
+            ++size;
+        }
+    }
+    
+    /**
+     * Segment a text with the patterns.
+     *
+     * Each segment has its "pattern-name" attribute set
+     * to the name of the pattern that produced it.
+     *
+     * @param text the text to segment
+     * @return the segments, in order
+     */
+    public Document.SegmentList segment(CharSequence text)
+    {
+        Matches[] matches = new Matches[names.length];
+        
+        // Candidate word matches, as (begin << 32 | alternative) per pattern.
+        long[][] candidates = new long[names.length][];
+        int[] candidateCounts = new int[names.length];
+        for (Automaton automaton : automata) {
+            if (automaton != null) automaton.scan(text, candidates, candidateCounts);
+        }
+        
+        for (int p = 0; p < names.length; ++p) {
+            matches[p] = new Matches();
+            if (regexps[p] != null) {
+                Matcher matcher = regexps[p].matcher(text);
+                while (matcher.find()) matches[p].add(matcher.start(), matcher.end());
+            }
+            else if (candidates[p] != null) {
+                long[] keys = candidates[p];
+                java.util.Arrays.sort(keys, 0, candidateCounts[p]);
+                int position = 0, lastBegin = -1;
+                for (int i = 0; i < candidateCounts[p]; ++i) {
+                    int begin = (int) (keys[i] >>> 32);
+                    if (begin < position || begin == lastBegin) continue;
+                    int end = begin + alternatives[p][(int) keys[i]].length();
+                    matches[p].add(begin, end);
+                    lastBegin = begin;
+                    position = end;
+                }
+            }
+        }
+        
+        return merge(matches);
+    }
+    
+    /**
+     * Merge the matches of all patterns, each of them sorted by position.
+     */
+    protected Document.SegmentList merge(final Matches[] matches)
+    {
+        int total = 0;
+        for (Matches m : matches) total += m.size;
+        Document.SegmentList segments = new Document.SegmentList(total);
+        
+        final int[] heads = new int[matches.length];
+        java.util.PriorityQueue<Integer> queue = new java.util.PriorityQueue<Integer>(Math.max(1, matches.length), new java.util.Comparator<Integer>() {
+                public int compare(Integer a, Integer b)
+                {
+                    int beginA = matches[a].begins[heads[a]], beginB = matches[b].begins[heads[b]];
+                    if (beginA != beginB) return (beginA < beginB) ? -1 : 1;
+                    int endA = matches[a].ends[heads[a]], endB = matches[b].ends[heads[b]];
+                    if (endA != endB) return (endA > endB) ? -1 : 1;
+                    
+                    return a.compareTo(b);
+                }
+            });
+        for (int p = 0; p < matches.length; ++p) {
+            if (matches[p].size > 0) queue.add(p);
+        }
+        while (! queue.isEmpty()) {
+            int p = queue.poll();
+            segments.add(matches[p].begins[heads[p]], matches[p].ends[heads[p]], names[p]);
+            if (++heads[p] < matches[p].size) queue.add(p);
+        }
+        
+        return segments;
+    }
+    
+    /**
+     * Aho-Corasick automaton over the words of several patterns.
+     *
+     * The trie nodes are stored in parallel arrays, with the children
+     * of each node in a linked list except for the root,
+     * which has a direct lookup table.
+     */
+    protected static class Automaton
+    {
+        protected int mode;
+        protected int nodes;
+        protected char[] labels;
+        protected int[] firstChild, nextSibling, fail, dictionaryLink, firstEntry;
+        protected int[] rootChildren;
+        protected int entries;
+        protected int[] entryNext, entryPattern, entryAlternative, entryLength;
+        
+        protected Automaton(int mode)
+        {
+            this.mode = mode;
+            nodes = 1;
+            labels         = new char[64];
+            firstChild     = new int[64];
+            nextSibling    = new int[64];
+            firstEntry     = new int[64];
+            firstChild[0]  = -1;
+            nextSibling[0] = -1;
+            firstEntry[0]  = -1;
+            rootChildren = new int[Character.MAX_VALUE + 1];
+            java.util.Arrays.fill(rootChildren, -1);
+            entries = 0;
+            entryNext        = new int[16];
+            entryPattern     = new int[16];
+            entryAlternative = new int[16];
+            entryLength      = new int[16];
+        }
+        
+        protected char fold(char c)
+        {
+            switch (mode) {
+            case CASE_INSENSITIVE_ASCII:
+                return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+            case CASE_INSENSITIVE_UNICODE:
+                return Character.toLowerCase(Character.toUpperCase(c));
+            default:
+                return c;
+            }
+        }
+        
+        protected int child(int node, char c)
+        {
+            if (0 == node) return rootChildren[c];
+            for (int n = firstChild[node]; n >= 0; n = nextSibling[n]) {
+                if (labels[n] == c) return n;
+            }
+            
+            return -1;
+        }
+        
+        protected void add(String word, int pattern, int alternative)
+        {
+            int node = 0;
+            for (int i = 0; i < word.length(); ++i) {
+                char c = fold(word.charAt(i));
+                int next = child(node, c);
+                if (next < 0) {
+                    next = newNode(c);
+                    if (0 == node) {
+                        rootChildren[c] = next;
+                    }
+                    else {
+                        nextSibling[next] = firstChild[node];
+                        firstChild[node] = next;
+                    }
+                }
+                node = next;
+            }
+            if (entries == entryNext.length) {
+                entryNext        = grow(entryNext);
+                entryPattern     = grow(entryPattern);
+                entryAlternative = grow(entryAlternative);
+                entryLength      = grow(entryLength);
+            }
+            entryNext[entries]        = firstEntry[node];
+            entryPattern[entries]     = pattern;
+            entryAlternative[entries] = alternative;
+            entryLength[entries]      = word.length();
+            firstEntry[node] = entries++;
+        }
+        
+        protected int newNode(char c)
+        {
+            if (nodes == labels.length) {
+                char[] newLabels = new char[nodes * 2];
+                System.arraycopy(labels, 0, newLabels, 0, nodes);
+                labels      = newLabels;
+                firstChild  = grow(firstChild);
+                nextSibling = grow(nextSibling);
+                firstEntry  = grow(firstEntry);
+            }
+            labels[nodes]      = c;
+            firstChild[nodes]  = -1;
+            nextSibling[nodes] = -1;
+            firstEntry[nodes]  = -1;
+            
+            return nodes++;
+        }
+        
+        protected static int[] grow(int[] array)
+        {
+            int[] larger = new int[array.length * 2];
+            System.arraycopy(array, 0, larger, 0, array.length);
+            
+            return larger;
+        }
+        
+        /**
+         * Compute the failure and dictionary links, breadth first.
+         */
+        protected void build()
+        {
+            fail           = new int[nodes];
+            dictionaryLink = new int[nodes];
+            int[] queue = new int[nodes];
+            int head = 0, tail = 0;
+            for (int c = 0; c < rootChildren.length; ++c) {
+                int n = rootChildren[c];
+                if (n >= 0) {
+                    fail[n] = 0;
+                    dictionaryLink[n] = -1;
+                    queue[tail++] = n;
+                }
+            }
+            while (head < tail) {
+                int node = queue[head++];
+                for (int n = firstChild[node]; n >= 0; n = nextSibling[n]) {
+                    int f = fail[node];
+                    int target;
+                    while ((target = child(f, labels[n])) < 0 && f != 0) f = fail[f];
+                    fail[n] = (target >= 0 && target != n) ? target : 0;
+                    dictionaryLink[n] = (firstEntry[fail[n]] >= 0) ? fail[n] : dictionaryLink[fail[n]];
+                    queue[tail++] = n;
+                }
+            }
+        }
+        
+        /**
+         * Scan the text and collect the words found that have
+         * word boundaries at both ends.
+         */
+        protected void scan(CharSequence text, long[][] candidates, int[] counts)
+        {
+            int node = 0;
+            int length = text.length();
+            for (int i = 0; i < length; ++i) {
+                char c = fold(text.charAt(i));
+                int next;
+                while ((next = child(node, c)) < 0 && node != 0) node = fail[node];
+                node = (next >= 0) ? next : 0;
+                
+                int output = (firstEntry[node] >= 0) ? node : dictionaryLink[node];
+                if (output < 0 || ! isBoundary(text, i + 1)) continue;
+                for (; output > 0; output = dictionaryLink[output]) {
+                    for (int e = firstEntry[output]; e >= 0; e = entryNext[e]) {
+                        int begin = i + 1 - entryLength[e];
+                        if (! isBoundary(text, begin)) continue;
+                        int p = entryPattern[e];
+                        if (null == candidates[p]) candidates[p] = new long[16];
+                        else if (counts[p] == candidates[p].length) {
+                            long[] larger = new long[counts[p] * 2];
+                            System.arraycopy(candidates[p], 0, larger, 0, counts[p]);
+                            candidates[p] = larger;
+                        }
+                        candidates[p][counts[p]++] = ((long) begin << 32) | entryAlternative[e];
+                    }
+                }
+            }
+        }
+    }
+}
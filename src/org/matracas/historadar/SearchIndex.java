@@ -0,0 +1,408 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Full-text index of the words in a collection, to search
+ * all the documents at once.
+ *
+ * The matches are the same as those of {@link org.matracas.historadar.ui.DocumentView#search(String)}:
+ * the query, ignoring case, at the beginning of a word,
+ * so that "<tt>fra</tt>" finds "<tt>France</tt>" and "<tt>Frankfurt</tt>".
+ * Each word is indexed in lower case with its position, counted in words,
+ * and its offset in the text.
+ * The first word of the query is looked up in the index, as a prefix
+ * if it is the only one, and the following words must come
+ * right after it. The candidates are then checked against the text,
+ * which is needed only for queries of several words.
+ */
+public class SearchIndex
+{
+    /**
+     * Matches of a query in one document, with a relevance score
+     * that grows with the number of matches and is lower
+     * for longer documents.
+     */
+    public static class Hit extends EntityIndex.Posting
+    {
+        protected double score;
+        
+        public Hit(Document document)
+        {
+            super(document);
+        }
+        
+        /** @return the relevance of the document for the query */
+        public double getScore() { return score; }
+    }
+    
+    /**
+     * Occurrences of a word, grouped by document.
+     */
+    protected static class Term
+    {
+        int[] documents = new int[1];
+        int[] firsts    = new int[2];
+        int documentCount = 0;
+        int[] positions = new int[2];
+        int[] offsets   = new int[2];
+        int occurrenceCount = 0;
+        
+        void add(int document, int position, int offset)
+        {
+            if (0 == documentCount || documents[documentCount - 1] != document) {
+                if (documentCount == documents.length) {
+                    documents = grow(documents);
+                    firsts    = grow(firsts);
+                }
+                documents[documentCount] = document;
+                firsts[documentCount] = occurrenceCount;
+                ++documentCount;
+            }
+            if (occurrenceCount == positions.length) {
+                positions = grow(positions);
+                offsets   = grow(offsets);
+            }
+            positions[occurrenceCount] = position;
+            offsets[occurrenceCount]   = offset;
+            ++occurrenceCount;
+            firsts[documentCount] = occurrenceCount;
+        }
+        
+        /**
+         * Whether the word is at the given position of a document.
+         */
+        boolean contains(int document, int position)
+        {
+            int index = Arrays.binarySearch(documents, 0, documentCount, document);
+            if (index < 0) return false;
+            
+            return Arrays.binarySearch(positions, firsts[index], firsts[index + 1], position) >= 0;
+        }
+        
+        /**
+         * Get the offset of the word at the given position of a document.
+         *
+         * @return the offset, or -1 if the word is not there
+         */
+        int offsetOf(int document, int position)
+        {
+            int index = Arrays.binarySearch(documents, 0, documentCount, document);
+            if (index < 0) return -1;
+            
+            int occurrence = Arrays.binarySearch(positions, firsts[index], firsts[index + 1], position);
+            if (occurrence < 0) return -1;
+            
+            return offsets[occurrence];
+        }
+    }
+    
+    protected Vector<Document> documents;
+    protected int[] lengths;
+    protected long totalLength;
+    protected Map<String, Term> terms;
+    protected String[] sortedTerms;
+    
+    /**
+     * Constructs an empty index.
+     */
+    public SearchIndex()
+    {
+        documents = new Vector<Document>();
+        lengths = new int[16];
+        totalLength = 0;
+        terms = new HashMap<String, Term>();
+        sortedTerms = null;
+    }
+    
+    /**
+     * Index all documents in a collection.
+     *
+     * @param collection the documents
+     */
+    public SearchIndex(Document.Collection collection)
+    {
+        this();
+        for (Document document : collection) add(document);
+    }
+    
+    /**
+     * Whether a character is part of a word, as for "<tt>\b</tt>"
+     * in regular expressions, including combining marks after a letter.
+     */
+    protected static boolean isWordCharacter(CharSequence text, int index)
+    {
+        return MultiPatternMatcher.isWordCharacter(text, index);
+    }
+    
+    protected static int[] grow(int[] array)
+    {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        
+        return grown;
+    }
+    
+    /**
+     * Add the words of a document to the index.
+     *
+     * @param document the document
+     */
+    public synchronized void add(Document document)
+    {
+        int number = documents.size();
+        documents.add(document);
+        if (number == lengths.length) lengths = grow(lengths);
+        
+        CharSequence text = document.getText();
+        int length = text.length();
+        int position = 0;
+        StringBuilder word = new StringBuilder();
+        int i = 0;
+        while (i < length) {
+            if (! isWordCharacter(text, i)) {
+                ++i;
+                continue;
+            }
+            int begin = i;
+            word.setLength(0);
+            while (i < length && isWordCharacter(text, i)) {
+                word.append(Character.toLowerCase(text.charAt(i)));
+                ++i;
+            }
+            String key = word.toString();
+            Term term = terms.get(key);
+            if (null == term) terms.put(key, term = new Term());
+            term.add(number, position, begin);
+            ++position;
+        }
+        lengths[number] = position;
+        totalLength += position;
+        sortedTerms = null;
+    }
+    
+    /**
+     * @return number of documents in the index
+     */
+    public synchronized int size()
+    {
+        return documents.size();
+    }
+    
+    /**
+     * Find a query in all documents.
+     *
+     * @param query the text to search for
+     * @return the documents where it was found, most relevant first
+     */
+    public synchronized List<Hit> search(String query)
+    {
+        Vector<Hit> hits = new Vector<Hit>();
+        if (null == query || 0 == query.length()) return hits;
+        
+        Vector<String> words = new Vector<String>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < query.length(); ++i) {
+            if (isWordCharacter(query, i)) {
+                word.append(Character.toLowerCase(query.charAt(i)));
+            }
+            else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) words.add(word.toString());
+        
+        int[][] matches = new int[documents.size()][];
+        int[] matchCounts = new int[documents.size()];
+        if (words.isEmpty() || ! isWordCharacter(query, 0)) {
+            // The query does not start with a word, so it can match
+            // in places that are not in the index:
+            scan(query, matches, matchCounts);
+        }
+        else if (1 == words.size() && isWordCharacter(query, query.length() - 1)) {
+            for (String key : prefixed(words.get(0))) {
+                Term term = terms.get(key);
+                for (int d = 0; d < term.documentCount; ++d) {
+                    for (int o = term.firsts[d]; o < term.firsts[d + 1]; ++o) {
+                        addMatch(matches, matchCounts, term.documents[d], term.offsets[o]);
+                    }
+                }
+            }
+        }
+        else {
+            // The words before the last one, or all if the query
+            // does not end in a word, must be whole words.
+            // Start from the least frequent of them:
+            int whole = words.size();
+            if (isWordCharacter(query, query.length() - 1)) --whole;
+            int anchor = -1;
+            Term anchorTerm = null;
+            for (int i = 0; i < whole; ++i) {
+                Term term = terms.get(words.get(i));
+                if (null == term) {
+                    anchorTerm = null;
+                    break;
+                }
+                if (null == anchorTerm || term.occurrenceCount < anchorTerm.occurrenceCount) {
+                    anchor = i;
+                    anchorTerm = term;
+                }
+            }
+            if (anchorTerm != null) {
+                Term first = terms.get(words.get(0));
+                for (int d = 0; d < anchorTerm.documentCount; ++d) {
+                    int document = anchorTerm.documents[d];
+                    CharSequence text = null;
+                    for (int o = anchorTerm.firsts[d]; o < anchorTerm.firsts[d + 1]; ++o) {
+                        int start = anchorTerm.positions[o] - anchor;
+                        if (start < 0 || ! wholeWordsAt(words, whole, anchor, document, start)) continue;
+                        int offset = first.offsetOf(document, start);
+                        if (null == text) text = documents.get(document).getText();
+                        if (regionMatches(text, offset, query)) {
+                            addMatch(matches, matchCounts, document, offset);
+                        }
+                    }
+                }
+            }
+        }
+        
+        int documentsFound = 0;
+        for (int d = 0; d < matchCounts.length; ++d) {
+            if (matchCounts[d] > 0) ++documentsFound;
+        }
+        // Okapi BM25, with the query as a single term:
+        double k1 = 1.2, b = 0.75;
+        double averageLength = Math.max(1.0, (double) totalLength / Math.max(1, documents.size()));
+        double idf = Math.log(1.0 + (documents.size() - documentsFound + 0.5) / (documentsFound + 0.5));
+        for (int d = 0; d < matchCounts.length; ++d) {
+            if (0 == matchCounts[d]) continue;
+            Hit hit = new Hit(documents.get(d));
+            Arrays.sort(matches[d], 0, matchCounts[d]);
+            int end = 0;
+            for (int i = 0; i < matchCounts[d]; ++i) {
+                // Like a regular expression, skip overlapping matches:
+                if (matches[d][i] < end) continue;
+                end = matches[d][i] + query.length();
+                hit.add(matches[d][i], end);
+            }
+            double frequency = hit.getCount();
+            hit.score = idf * frequency * (k1 + 1)
+                / (frequency + k1 * (1 - b + b * lengths[d] / averageLength));
+            hits.add(hit);
+        }
+        java.util.Collections.sort(hits, new java.util.Comparator<Hit>() {
+                public int compare(Hit a, Hit b)
+                {
+                    if      (a.score > b.score) return -1;
+                    else if (a.score < b.score) return  1;
+                    else                        return  0;
+                }
+            });
+        
+        return hits;
+    }
+    
+    /**
+     * Find the indexed words that start with a prefix.
+     */
+    protected List<String> prefixed(String prefix)
+    {
+        if (null == sortedTerms) {
+            sortedTerms = terms.keySet().toArray(new String[terms.size()]);
+            Arrays.sort(sortedTerms);
+        }
+        
+        List<String> found = new Vector<String>();
+        int index = Arrays.binarySearch(sortedTerms, prefix);
+        if (index < 0) index = -index - 1;
+        while (index < sortedTerms.length && sortedTerms[index].startsWith(prefix)) {
+            found.add(sortedTerms[index++]);
+        }
+        
+        return found;
+    }
+    
+    /**
+     * Whether the whole words of the query come one after the other
+     * from the given position of the document.
+     * The last word, if the query ends in it, is checked only
+     * against the text since it can be a prefix.
+     *
+     * @param whole number of whole words at the start of the query
+     * @param known index of the word already known to be in place
+     */
+    protected boolean wholeWordsAt(List<String> words, int whole, int known, int document, int position)
+    {
+        for (int i = 0; i < whole; ++i) {
+            if (i == known) continue;
+            if (! terms.get(words.get(i)).contains(document, position + i)) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Compare the query with the text at the given offset, ignoring case.
+     */
+    protected static boolean regionMatches(CharSequence text, int offset, String query)
+    {
+        if (offset + query.length() > text.length()) return false;
+        for (int i = 0; i < query.length(); ++i) {
+            char a = text.charAt(offset + i);
+            char b = query.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Look for the query in the text of each document
+     * with a regular expression.
+     */
+    protected void scan(String query, int[][] matches, int[] matchCounts)
+    {
+        Pattern pattern = Pattern.compile("\\b" + Pattern.quote(query),
+                                          Document.PatternTable.CASE_INSENSITIVE);
+        for (int d = 0; d < documents.size(); ++d) {
+            Matcher matcher = pattern.matcher(documents.get(d).getText());
+            while (matcher.find()) addMatch(matches, matchCounts, d, matcher.start());
+        }
+    }
+    
+    protected static void addMatch(int[][] matches, int[] matchCounts, int document, int offset)
+    {
+        if (null == matches[document]) matches[document] = new int[4];
+        else if (matchCounts[document] == matches[document].length) matches[document] = grow(matches[document]);
+        matches[document][matchCounts[document]++] = offset;
+    }
+}
@@ -0,0 +1,298 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.EOFException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Compact binary encoding of segment lists.
+ *
+ * A stream starts with the bytes "<tt>HRSG</tt>" and a version number,
+ * followed by any number of segment lists and metadata tables.
+ * All integers are variable-length (7 bits per byte, least significant
+ * first), and signed ones are zigzag-encoded.
+ * Each segment is written as:
+ * <ol>
+ *   <li>number of attributes plus one (0 ends the list),</li>
+ *   <li>begin offset as difference from the previous segment's begin,</li>
+ *   <li>length (end - begin),</li>
+ *   <li>attribute names and values, as string references.</li>
+ * </ol>
+ * A string reference is the index of the string in a dictionary shared
+ * by the whole stream; the index equal to the dictionary size introduces
+ * a new string, followed by its UTF-8 length and bytes.
+ * This way the pattern names take usually one byte per segment,
+ * and most segments need between 4 and 6 bytes.
+ *
+ * Writing and reading are done one segment at a time,
+ * so that lists of any size can be streamed.
+ */
+public class SegmentCodec
+{
+    protected static final byte[] MAGIC = { 'H', 'R', 'S', 'G' };
+    protected static final int VERSION = 1;
+    
+    /**
+     * Longest string accepted when reading, in UTF-8 bytes.
+     * Longer lengths come from corrupt or truncated streams.
+     */
+    public static final int MAXIMUM_STRING_BYTES = 1 << 24;
+    
+    /**
+     * Writes segment lists to an output stream.
+     *
+     * The output is not buffered here: wrap it in a
+     * {@link java.io.BufferedOutputStream} if needed.
+     */
+    public static class Writer
+    {
+        protected OutputStream output;
+        protected Map<String, Integer> dictionary;
+        protected int previousBegin;
+        
+        public Writer(OutputStream output) throws java.io.IOException
+        {
+            this.output = output;
+            dictionary = new HashMap<String, Integer>();
+            previousBegin = 0;
+            output.write(MAGIC);
+            writeVarint(VERSION);
+        }
+        
+        /**
+         * Write one segment of the current list.
+         */
+        public void write(Document.Segment segment) throws java.io.IOException
+        {
+            writeVarint(segment.size() + 1);
+            writeSigned(segment.getBegin() - previousBegin);
+            writeSigned(segment.getEnd() - segment.getBegin());
+            for (Map.Entry<String, String> attribute : segment.entrySet()) {
+                writeString(attribute.getKey());
+                writeString(attribute.getValue());
+            }
+            previousBegin = segment.getBegin();
+        }
+        
+        /**
+         * Finish the current list. The next segment starts a new one.
+         */
+        public void endList() throws java.io.IOException
+        {
+            writeVarint(0);
+            previousBegin = 0;
+        }
+        
+        /**
+         * Write a whole list.
+         */
+        public void write(Document.SegmentList segments) throws java.io.IOException
+        {
+            for (Document.Segment segment : segments) write(segment);
+            endList();
+        }
+        
+        /**
+         * Write a metadata table: the number of values,
+         * and for each one the class and the value as string references.
+         */
+        public void write(Document.Metadata metadata) throws java.io.IOException
+        {
+            int count = 0;
+            for (Document.Metadata.Values values : metadata.values()) count += values.size();
+            writeVarint(count);
+            for (Map.Entry<String, Document.Metadata.Values> entry : metadata.entrySet()) {
+                for (String value : entry.getValue()) {
+                    writeString(entry.getKey());
+                    writeString(value);
+                }
+            }
+        }
+        
+        public void writeString(String string) throws java.io.IOException
+        {
+            Integer index = dictionary.get(string);
+            if (index != null) {
+                writeVarint(index);
+            }
+            else {
+                writeVarint(dictionary.size());
+                dictionary.put(string, dictionary.size());
+                byte[] bytes = string.getBytes("UTF-8");
+                writeVarint(bytes.length);
+                output.write(bytes);
+            }
+        }
+        
+        public void writeSigned(int value) throws java.io.IOException
+        {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+        
+        public void writeVarint(int value) throws java.io.IOException
+        {
+            while ((value & ~0x7F) != 0) {
+                output.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            output.write(value);
+        }
+        
+        public void flush() throws java.io.IOException
+        {
+            output.flush();
+        }
+        
+        public void close() throws java.io.IOException
+        {
+            output.close();
+        }
+    }
+    
+    /**
+     * Reads segment lists from an input stream written by a {@link Writer}.
+     *
+     * The input is not buffered here: wrap it in a
+     * {@link java.io.BufferedInputStream} if needed.
+     */
+    public static class Reader
+    {
+        protected InputStream input;
+        protected Vector<String> dictionary;
+        protected int previousBegin;
+        
+        public Reader(InputStream input) throws java.io.IOException
+        {
+            this.input = input;
+            dictionary = new Vector<String>();
+            previousBegin = 0;
+            for (int i = 0; i < MAGIC.length; ++i) {
+                if (input.read() != MAGIC[i]) throw new java.io.IOException("Not a segment stream");
+            }
+            int version = readVarint();
+            if (version != VERSION) throw new java.io.IOException("Unsupported segment stream version " + version);
+        }
+        
+        /**
+         * Read the next segment of the current list.
+         *
+         * @return the segment, or <code>null</code> at the end of the list
+         */
+        public Document.Segment next() throws java.io.IOException
+        {
+            int attributes = readVarint() - 1;
+            if (attributes < 0) {
+                previousBegin = 0;
+                return null;
+            }
+            int begin = previousBegin + readSigned();
+            int end   = begin + readSigned();
+            if (begin < 0 || end < begin) throw new java.io.IOException("Invalid segment [" + begin + ", " + end + "]");
+            Document.Segment segment = new Document.Segment(begin, end);
+            for (int i = 0; i < attributes; ++i) {
+                String name = readString();
+                segment.put(name, readString());
+            }
+            previousBegin = begin;
+            
+            return segment;
+        }
+        
+        /**
+         * Read a whole list.
+         */
+        public Document.SegmentList readSegmentList() throws java.io.IOException
+        {
+            Document.SegmentList segments = new Document.SegmentList();
+            Document.Segment segment;
+            while ((segment = next()) != null) segments.add(segment);
+            
+            return segments;
+        }
+        
+        /**
+         * Read a metadata table written by {@link Writer#write(Document.Metadata)}.
+         */
+        public Document.Metadata readMetadata() throws java.io.IOException
+        {
+            Document.Metadata metadata = new Document.Metadata();
+            int count = readVarint();
+            for (int i = 0; i < count; ++i) {
+                String entryClass = readString();
+                metadata.add(entryClass, readString());
+            }
+            
+            return metadata;
+        }
+        
+        public String readString() throws java.io.IOException
+        {
+            int index = readVarint();
+            if (index < 0 || index > dictionary.size()) throw new java.io.IOException("Invalid string reference " + index);
+            if (index < dictionary.size()) return dictionary.get(index);
+            
+            int size = readVarint();
+            if (size < 0 || size > MAXIMUM_STRING_BYTES) throw new java.io.IOException("Invalid string length " + size);
+            byte[] bytes = new byte[size];
+            int length = 0, count;
+            while (length < bytes.length) {
+                count = input.read(bytes, length, bytes.length - length);
+                if (count < 0) throw new EOFException();
+                length += count;
+            }
+            String string = new String(bytes, "UTF-8");
+            dictionary.add(string);
+            
+            return string;
+        }
+        
+        public int readSigned() throws java.io.IOException
+        {
+            int value = readVarint();
+            
+            return (value >>> 1) ^ -(value & 1);
+        }
+        
+        public int readVarint() throws java.io.IOException
+        {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = input.read();
+                if (b < 0) throw new EOFException();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new java.io.IOException("Malformed variable-length integer");
+        }
+        
+        public void close() throws java.io.IOException
+        {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar;
+
+import java.util.Hashtable;
+import java.util.Map;
+
+/**
+ * Division of a date-sorted collection into consecutive time periods,
+ * each of them a column in the radar.
+ *
+ * Since the collection is sorted by date, the documents of a period
+ * are a range of positions in it, and the limits of each period are
+ * found with a binary search in its date index,
+ * so building a timeline costs one search per period
+ * regardless of how many documents there are.
+ * Documents without a date go together in a first period.
+ */
+public class Timeline
+{
+    /**
+     * Length of the periods, from one column per document to one per year.
+     */
+    public enum Resolution { DOCUMENT, DAY, WEEK, MONTH, YEAR };
+    
+    protected Document.Collection documents;
+    protected Resolution resolution;
+    protected int from, to;
+    protected int size;
+    protected int[] starts;
+    protected long[] days;
+    
+    /**
+     * Divide a range of the collection into periods.
+     *
+     * @param documents the collection, which gets sorted if it was not
+     * @param from position of the first document in the sorted collection
+     * @param to position after the last document
+     * @param resolution length of the periods
+     */
+    public Timeline(Document.Collection documents, int from, int to, Resolution resolution)
+    {
+        this.documents  = documents;
+        this.from       = from;
+        this.to         = to;
+        this.resolution = resolution;
+        starts = new int[16];
+        days   = new long[16];
+        size = 0;
+        int first = from;
+        while (first < to) {
+            long day = Document.dayOf(documents.getDate(first));
+            int end = to;
+            if (Resolution.DOCUMENT == resolution) {
+                end = first + 1;
+            }
+            else {
+                if (Document.NO_DATE == day) {
+                    end = documents.indexOfDate(Document.NO_DATE + 1);
+                }
+                else {
+                    end = documents.indexOfDate(nextPeriod(day, resolution) * Document.MINUTES_PER_DAY);
+                    day = startOfPeriod(day, resolution);
+                }
+                if (end > to) end = to;
+            }
+            add(first, day);
+            first = end;
+        }
+        starts[size] = to;
+    }
+    
+    /**
+     * Divide a range of the collection into at most the given number
+     * of periods, as short as possible.
+     *
+     * @param documents the collection
+     * @param from position of the first document in the sorted collection
+     * @param to position after the last document
+     * @param maximum number of periods, that is of radar columns
+     * @return the timeline, with one period per year
+     *         if even that gives more than the maximum
+     */
+    public static Timeline fit(Document.Collection documents, int from, int to, int maximum)
+    {
+        if (to - from <= maximum) return new Timeline(documents, from, to, Resolution.DOCUMENT);
+        
+        Resolution[] resolutions = Resolution.values();
+        for (int i = 1; i < resolutions.length - 1; ++i) {
+            if (countPeriods(documents, from, to, resolutions[i], maximum) <= maximum) {
+                return new Timeline(documents, from, to, resolutions[i]);
+            }
+        }
+        
+        return new Timeline(documents, from, to, Resolution.YEAR);
+    }
+    
+    /**
+     * Count the periods in a range of the collection,
+     * giving up when there are more than the limit.
+     */
+    protected static int countPeriods(Document.Collection documents, int from, int to, Resolution resolution, int limit)
+    {
+        int count = 0;
+        int first = from;
+        while (first < to && count <= limit) {
+            long day = Document.dayOf(documents.getDate(first));
+            if (Document.NO_DATE == day) first = documents.indexOfDate(Document.NO_DATE + 1);
+            else                         first = documents.indexOfDate(nextPeriod(day, resolution) * Document.MINUTES_PER_DAY);
+            ++count;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Find the first day of the period that contains a given day.
+     *
+     * Weeks start on Monday.
+     *
+     * @param day days since 1970-01-01
+     * @param resolution length of the period
+     * @return days since 1970-01-01
+     */
+    public static long startOfPeriod(long day, Resolution resolution)
+    {
+        int[] date;
+        switch (resolution) {
+        case WEEK:
+            // 1970-01-01 was a Thursday:
+            long weekday = (day + 3) % 7;
+            if (weekday < 0) weekday += 7;
+            return day - weekday;
+        case MONTH:
+            date = Document.civilDate(day);
+            return Document.epochDay(date[0], date[1], 1);
+        case YEAR:
+            date = Document.civilDate(day);
+            return Document.epochDay(date[0], 1, 1);
+        default:
+            return day;
+        }
+    }
+    
+    /**
+     * Find the first day of the period that follows the one
+     * that contains a given day.
+     *
+     * @param day days since 1970-01-01
+     * @param resolution length of the period
+     * @return days since 1970-01-01
+     */
+    public static long nextPeriod(long day, Resolution resolution)
+    {
+        int[] date;
+        switch (resolution) {
+        case WEEK:
+            return startOfPeriod(day, resolution) + 7;
+        case MONTH:
+            date = Document.civilDate(day);
+            if (12 == date[1]) return Document.epochDay(date[0] + 1, 1, 1);
+            else               return Document.epochDay(date[0], date[1] + 1, 1);
+        case YEAR:
+            date = Document.civilDate(day);
+            return Document.epochDay(date[0] + 1, 1, 1);
+        default:
+            return day + 1;
+        }
+    }
+    
+    protected void add(int first, long day)
+    {
+        // Keep room for the end of the last period:
+        if (size + 1 == starts.length) {
+            int[]  grownStarts = new int[size * 2];
+            long[] grownDays   = new long[size * 2];
+            System.arraycopy(starts, 0, grownStarts, 0, size);
+            System.arraycopy(days,   0, grownDays,   0, size);
+            starts = grownStarts;
+            days   = grownDays;
+        }
+        starts[size] = first;
+        days[size]   = day;
+        ++size;
+    }
+    
+    /** @return number of periods */
+    public int size() { return size; }
+    
+    /** @return length of the periods */
+    public Resolution getResolution() { return resolution; }
+    
+    /** @return position of the first document in the timeline */
+    public int getFrom() { return from; }
+    
+    /** @return position after the last document in the timeline */
+    public int getTo() { return to; }
+    
+    /**
+     * @param period index of the period
+     * @return position of its first document in the sorted collection
+     */
+    public int getFirst(int period) { return starts[period]; }
+    
+    /**
+     * @param period index of the period
+     * @return position after its last document in the sorted collection
+     */
+    public int getEnd(int period) { return starts[period + 1]; }
+    
+    /**
+     * Get the date where a period starts,
+     * which for single documents is the date of the document.
+     *
+     * @param period index of the period
+     * @return minutes since the epoch, or {@link Document#NO_DATE}
+     */
+    public long getDate(int period)
+    {
+        if (Resolution.DOCUMENT == resolution) return documents.getDate(starts[period]);
+        if (Document.NO_DATE == days[period]) return Document.NO_DATE;
+        
+        return days[period] * Document.MINUTES_PER_DAY;
+    }
+    
+    /**
+     * Describe a period for the user.
+     *
+     * @param period index of the period
+     * @return the date entry of the document, or the start of the period
+     *         as "<tt>yyyy-mm-dd</tt>", "<tt>yyyy-mm</tt>" or "<tt>yyyy</tt>",
+     *         or "no date", with the number of documents
+     */
+    public String getLabel(int period)
+    {
+        if (Resolution.DOCUMENT == resolution) {
+            Document.Metadata.Values values;
+            values = documents.get(starts[period]).getMetadata().get(Document.Metadata.date);
+            if (values != null) return values.lastElement();
+            else                return "BOGUS";
+        }
+        
+        String label;
+        if (Document.NO_DATE == days[period]) {
+            label = "no date";
+        }
+        else {
+            label = Document.formatDay(days[period]);
+            switch (resolution) {
+            case WEEK:  label = "week of " + label;    break;
+            case MONTH: label = label.substring(0, 7); break;
+            case YEAR:  label = label.substring(0, 4); break;
+            }
+        }
+        int count = getEnd(period) - getFirst(period);
+        
+        return label + " (" + count + ((1 == count)? " document)": " documents)");
+    }
+    
+    /**
+     * Find the period of a document.
+     *
+     * @param position of the document in the sorted collection
+     * @return index of the period, or -1 if not in the timeline
+     */
+    public int getPeriod(int position)
+    {
+        if (position < from || position >= to) return -1;
+        
+        int low = 0, high = size;
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= position) low  = middle;
+            else                            high = middle;
+        }
+        
+        return low;
+    }
+    
+    /**
+     * Add up the entity counts of the documents in a period.
+     *
+     * @param period index of the period
+     * @param indexes the indexes of the entities in the documents,
+     *        some of which can be <code>null</code>
+     * @return total counts for each entity
+     */
+    public Map<String, Integer> getCounts(int period, EntityIndex... indexes)
+    {
+        Map<String, Integer> total = new Hashtable<String, Integer>();
+        for (int position = getFirst(period); position < getEnd(period); ++position) {
+            for (EntityIndex entities : indexes) {
+                if (entities != null) entities.addCounts(documents.get(position), total);
+            }
+        }
+        
+        return total;
+    }
+}
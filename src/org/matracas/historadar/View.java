@@ -46,6 +46,8 @@ import org.matracas.historadar.nlp.NER;
 import org.matracas.historadar.nlp.ner.SimpleRegexp;
 import org.matracas.historadar.nlp.ner.OpenNlpNER;
 import org.matracas.historadar.nlp.ner.StanfordNER;
+import org.matracas.historadar.nlp.ner.Gazetteer;
+import org.matracas.historadar.nlp.ner.Ensemble;
 
 /**
  * Main class of HistoRadar, with the GUI application.
@@ -73,16 +75,39 @@ public class View
     private SwingWorker worker;
     
     protected Document.Collection documents;
+    protected boolean memoryMapped;
     protected Document currentDocument;
     protected String documentDate;
-    protected class SegmentsTable extends Hashtable<String, Document.SegmentList>
-    {
-    }
-    protected SegmentsTable segmentsInDocuments;
+    protected Annotator.SegmentsTable segmentsInDocuments;
+    protected AnnotationScheduler scheduler;
+    
+    // Radar contents while the annotation is still going on:
+    protected java.util.SortedSet<String> radarTypes;
+    protected EntityIndex entityIndex;
+    protected boolean radarOutdated;
+    protected long radarUpdateTime;
+    protected Timer radarTimer;
+    
+    // Radar columns: each one is a period of time, or a document
+    // if the whole collection fits in MAXIMUM_PERIODS columns.
+    protected static final int MAXIMUM_PERIODS = 400;
+    protected Timeline timeline;
+    protected Timeline.Resolution timeResolution;
+    protected java.util.Stack<int[]> zoomedPeriods;
+    protected java.util.Vector<Map<String, Integer> > periodCounts;
+    protected java.util.Set<String> radarRows;
+    
+    // Search in all documents, shown as the first row of the radar:
+    protected SwingWorker<SearchIndex, Void> searchIndexer;
+    protected boolean searchIndexComplete;
+    protected SearchThread searchThread;
+    protected EntityIndex searchResults;
+    protected String searchRow, searchQuery;
     
     protected OCR ocr;
     protected Metadata metadata;
     protected NER tagger;
+    protected Annotator annotator;
     
     public View(String[] args)
     {
@@ -99,8 +124,17 @@ public class View
         snowballFile = null;
         currentDocument = null;
         worker = null;
-        if (args.length == 1) {
-            loadCollection(new File(args[0]));
+        timeResolution = null;
+        zoomedPeriods = new java.util.Stack<int[]>();
+        memoryMapped = false;
+        String directory = null;
+        for (int i = 0; i < args.length; ++i) {
+            if      ("--memory-mapped".equals(args[i]))  memoryMapped = true;
+            else if ("--preload-models".equals(args[i])) preloadModels();
+            else                                         directory = args[i];
+        }
+        if (directory != null) {
+            loadCollection(new File(directory));
             visualize(documents);
         }
         else {
@@ -113,32 +147,450 @@ public class View
         syncInterface();
     }
     
+    /**
+     * Start loading the NER models in the background,
+     * so that switching engines later does not have to wait for them.
+     */
+    protected void preloadModels()
+    {
+        OpenNlpNER.preload();
+        StanfordNER.preload();
+    }
+    
     protected void visualize(Document.Collection documents)
     {
         window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
         
         if (worker != null) worker.cancel(true);
-        worker = new AnnotatorThread();
+        worker = new LazyAnnotatorThread();
         worker.execute();
     }
     
-    protected class AnnotatorThread extends SwingWorker<SegmentsTable, Void> {
-        public AnnotatorThread() {
+    /**
+     * Annotates the collection in the background, starting with
+     * the current document and the visible part of the radar,
+     * and updates the radar as the results come.
+     */
+    protected class LazyAnnotatorThread extends SwingWorker<Annotator.SegmentsTable, Document> {
+        protected AnnotationScheduler lazyScheduler;
+        
+        public LazyAnnotatorThread() {
+            lazyScheduler = new AnnotationScheduler(annotator, documents);
+            scheduler = lazyScheduler;
+            segmentsInDocuments = null;
+            radarTypes = null;
+            zoomedPeriods.clear();
+        }
+        
+        public Annotator.SegmentsTable doInBackground() throws InterruptedException {
+            progressBar.setValue(0);
+            progressBar.setMaximum(documents.size());
+            progressIndicator.setVisible(true);
+            long start, stop;
+            start = System.currentTimeMillis();
+            AnnotationScheduler.Listener listener = new AnnotationScheduler.Listener() {
+                    public void collectionPrepared(final Annotator.SegmentsTable segmentsInDocuments)
+                    {
+                        SwingUtilities.invokeLater(new Runnable() {
+                                public void run()
+                                {
+                                    if (scheduler != lazyScheduler) return;
+                                    startRadar(segmentsInDocuments);
+                                }
+                            });
+                    }
+                    
+                    public void documentAnnotated(Document document, int count, int total)
+                    {
+                        if (document != null) publish(document);
+                    }
+                };
+            Annotator.SegmentsTable segmentsInDocuments = lazyScheduler.run(listener);
+            stop = System.currentTimeMillis();
+            double elapsed = stop - start;
+            java.text.NumberFormat format = java.text.NumberFormat.getInstance(java.util.Locale.ENGLISH);
+            format.setMaximumFractionDigits(3);
+            if (documents.size() > 0) System.err.println("Processed " + documents.size() + " documents in " + format.format(elapsed / 1000) + "s\nAverage " + format.format(elapsed / 1000 / documents.size()) + "s per document");
+            
+            return segmentsInDocuments;
+        }
+        
+        protected void process(java.util.List<Document> annotated) {
+            if (scheduler != lazyScheduler || null == radarTypes) return;
+            for (Document document : annotated) {
+                updateRadar(document);
+                if (document == currentDocument) showDocument();
+            }
+            progressBar.setValue(segmentsInDocuments.size());
+            refreshRadar();
+        }
+        
+        public void done() {
+            // A newer run has taken over the radar and the progress indicator.
+            if (scheduler != lazyScheduler) return;
+            try {
+                get();
+                if (radarTimer != null) radarTimer.stop();
+                if (radarOutdated) redrawRadar();
+                radarTypes = null;
+                scheduler = null;
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            catch (java.util.concurrent.ExecutionException e) {
+                e.printStackTrace();
+            }
+            catch (java.util.concurrent.CancellationException e) {
+                // OK. This was cancelled on request.
+            }
+            finally {
+                progressIndicator.setVisible(false);
+                window.setCursor(Cursor.getDefaultCursor());
+            }
+        }
+    }
+    
+    /**
+     * Show in the radar the documents annotated before
+     * or found in the cache, once the collection is sorted,
+     * and ask for the ones the user is looking at.
+     */
+    protected void startRadar(Annotator.SegmentsTable segmentsInDocuments)
+    {
+        this.segmentsInDocuments = segmentsInDocuments;
+        radarTypes = new java.util.TreeSet<String>();
+        entityIndex = new EntityIndex();
+        radarOutdated = true;
+        for (Document document : documents) {
+            if (segmentsInDocuments.containsKey(document.getIdentifier())) updateRadar(document);
+        }
+        redrawRadar();
+        view.setDividerLocation(view.getWidth() - view.getDividerSize() - (int) radar.getPreferredSize().getWidth() - 1);
+        progressBar.setValue(segmentsInDocuments.size());
+        window.setCursor(Cursor.getDefaultCursor());
+        showDocument();
+        prioritizeVisible();
+        indexForSearch();
+    }
+    
+    /**
+     * Index the entities of a newly annotated document,
+     * and draw its column unless there are new entities
+     * that need new rows.
+     */
+    protected void updateRadar(Document document)
+    {
+        Document.SegmentList segments = segmentsInDocuments.get(document.getIdentifier());
+        if (null == segments) return;
+        
+        Map<String, Integer> previous = entityIndex.getCounts(document);
+        entityIndex.put(document, segments);
+        Map<String, Integer> typeCount = entityIndex.getCounts(document);
+        if (! radarTypes.containsAll(typeCount.keySet())) {
+            radarTypes.addAll(typeCount.keySet());
+            radarOutdated = true;
+        }
+        else if (! radarOutdated) {
+            int period = timeline.getPeriod(documents.indexOf(document));
+            if (period < 0) return;
+            Map<String, Integer> total = periodCounts.get(period);
+            addCounts(total, previous, -1);
+            addCounts(total, typeCount, 1);
+            radar.setColumn(timeline.getDate(period), period, columnValues(radarRows, total));
+        }
+    }
+    
+    /**
+     * Add or subtract the entity counts of a document
+     * to those of its period.
+     */
+    protected void addCounts(Map<String, Integer> total, Map<String, Integer> counts, int sign)
+    {
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            Integer count = total.get(entry.getKey());
+            if (null == count) count = 0;
+            count += sign * entry.getValue();
+            if (count != 0) total.put(entry.getKey(), count);
+            else            total.remove(entry.getKey());
+        }
+    }
+    
+    /**
+     * Redraw the whole radar if there are new rows,
+     * at most twice per second.
+     */
+    protected void refreshRadar()
+    {
+        if (! radarOutdated) return;
+        
+        long wait = radarUpdateTime + 500 - System.currentTimeMillis();
+        if (wait <= 0) {
+            redrawRadar();
+            return;
+        }
+        if (null == radarTimer) {
+            radarTimer = new Timer((int) wait, new ActionListener() {
+                    public void actionPerformed(ActionEvent event)
+                    {
+                        if (radarTypes != null) refreshRadar();
+                    }
+                });
+            radarTimer.setRepeats(false);
+        }
+        if (! radarTimer.isRunning()) {
+            radarTimer.setInitialDelay((int) wait);
+            radarTimer.start();
+        }
+    }
+    
+    protected void redrawRadar()
+    {
+        setRows(radar, radarTypes, entityIndex);
+        radarOutdated = false;
+        radarUpdateTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * Annotate first the current document and the documents
+     * in the visible part of the radar.
+     */
+    protected void prioritizeVisible()
+    {
+        if (null == scheduler || ! scheduler.isPrepared()) return;
+        
+        java.util.List<Document> visible = new java.util.Vector<Document>();
+        if (currentDocument != null) visible.add(currentDocument);
+        int[] columns = radar.getVisibleColumns();
+        if (timeline != null) {
+            for (int period = columns[0]; period < columns[1] && period < timeline.size(); ++period) {
+                for (int position = timeline.getFirst(period); position < timeline.getEnd(period); ++position) {
+                    visible.add(documents.get(position));
+                }
+            }
+        }
+        scheduler.prioritize(visible);
+    }
+    
+    /**
+     * Divide the collection, or the period the user zoomed into,
+     * in radar columns.
+     */
+    protected Timeline createTimeline()
+    {
+        int from = 0;
+        int to   = documents.size();
+        if (! zoomedPeriods.isEmpty()) {
+            from = zoomedPeriods.peek()[0];
+            to   = zoomedPeriods.peek()[1];
+        }
+        if (null == timeResolution) return Timeline.fit(documents, from, to, MAXIMUM_PERIODS);
+        else                        return new Timeline(documents, from, to, timeResolution);
+    }
+    
+    /**
+     * Draw the radar again after changing the periods of its columns.
+     */
+    protected void redrawTimeline()
+    {
+        selectedRow    = -1;
+        selectedColumn = -1;
+        if (radarTypes != null) {
+            redrawRadar();
+        }
+        else if (columnLabels != null && entityIndex != null) {
+            setRows(radar, entityIndex.getEntities(), entityIndex);
+        }
+        prioritizeVisible();
+    }
+    
+    /**
+     * Show in the radar only the documents of one period,
+     * divided into shorter periods.
+     */
+    protected void zoomIntoPeriod(int period)
+    {
+        if (null == timeline || period < 0 || period >= timeline.size()) return;
+        if (Timeline.Resolution.DOCUMENT == timeline.getResolution()) return;
+        
+        zoomedPeriods.push(new int[] { timeline.getFirst(period), timeline.getEnd(period) });
+        redrawTimeline();
+    }
+    
+    /**
+     * Find the document to show for a radar cell:
+     * the first one in the period that mentions the entity.
+     */
+    protected Document documentInPeriod(int period, String entity)
+    {
+        int first = timeline.getEnd(period);
+        EntityIndex index = rowIndex(entity);
+        if (index != null) {
+            for (EntityIndex.Posting posting : index.getPostings(entity)) {
+                int position = documents.indexOf(posting.getDocument());
+                if (position >= timeline.getFirst(period) && position < first) first = position;
+            }
+        }
+        if (first == timeline.getEnd(period)) first = timeline.getFirst(period);
+        
+        return documents.get(first);
+    }
+    
+    /**
+     * Get the index with the mentions shown in a radar row.
+     */
+    protected EntityIndex rowIndex(String row)
+    {
+        if (row.equals(searchRow)) return searchResults;
+        else                       return entityIndex;
+    }
+    
+    /**
+     * Search all documents, open the most relevant one,
+     * and show where the matches are in the first row of the radar.
+     * An empty query removes that row.
+     * The search runs in a {@link SearchThread}, which waits for the index
+     * if it is still being built.
+     */
+    protected void searchAll(String query)
+    {
+        if (null == documents) return;
+        
+        if (null == query || 0 == query.length()) {
+            if (searchThread != null) window.setCursor(Cursor.getDefaultCursor());
+            searchThread  = null;
+            searchRow     = null;
+            searchQuery   = null;
+            searchResults = null;
+            redrawTimeline();
+            return;
+        }
+        
+        window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        if (null == searchIndexer || ! searchIndexComplete) indexForSearch();
+        searchThread = new SearchThread(query);
+        searchThread.execute();
+    }
+    
+    /**
+     * Start building the search index in the background.
+     * Until the documents are prepared, their text might still change
+     * with the OCR correction, so an index built before that is
+     * built again for the next search.
+     */
+    protected void indexForSearch()
+    {
+        if (null == documents) return;
+        
+        final Document.Collection collection = documents;
+        searchIndexComplete = (null == scheduler || scheduler.isPrepared());
+        searchIndexer = new SwingWorker<SearchIndex, Void>() {
+                public SearchIndex doInBackground()
+                {
+                    return new SearchIndex(collection);
+                }
+            };
+        searchIndexer.execute();
+    }
+    
+    /**
+     * Runs a search once the index is ready, and shows the results
+     * unless another search or collection came in the meantime.
+     */
+    protected class SearchThread extends SwingWorker<java.util.List<SearchIndex.Hit>, Void> {
+        protected String query;
+        protected SwingWorker<SearchIndex, Void> indexer;
+        protected long elapsed;
+        
+        public SearchThread(String query) {
+            this.query = query;
+            indexer = searchIndexer;
+        }
+        
+        public java.util.List<SearchIndex.Hit> doInBackground() throws Exception {
+            SearchIndex index = indexer.get();
+            long start = System.currentTimeMillis();
+            java.util.List<SearchIndex.Hit> hits = index.search(query);
+            elapsed = System.currentTimeMillis() - start;
+            
+            return hits;
+        }
+        
+        public void done() {
+            if (searchThread != this) return;
+            try {
+                showSearchResults(query, get(), elapsed);
+            }
+            catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            catch (java.util.concurrent.ExecutionException e) {
+                e.printStackTrace();
+            }
+            catch (java.util.concurrent.CancellationException e) {
+                // OK. This was cancelled on request.
+            }
+            finally {
+                searchThread = null;
+                window.setCursor(Cursor.getDefaultCursor());
+            }
+        }
+    }
+    
+    /**
+     * Show the matches of a search in the first row of the radar,
+     * and open the most relevant document.
+     */
+    protected void showSearchResults(String query, java.util.List<SearchIndex.Hit> hits, long elapsed)
+    {
+        searchQuery   = query;
+        searchRow     = "search: " + query;
+        searchResults = new EntityIndex();
+        int matches = 0;
+        for (SearchIndex.Hit hit : hits) {
+            searchResults.add(searchRow, hit);
+            matches += hit.getCount();
         }
+        redrawTimeline();
         
-        public SegmentsTable doInBackground() {
+        if (! hits.isEmpty()) {
+            showDocument(hits.get(0).getDocument());
+            documentView.search(query);
+            updateSearchButtons();
+        }
+        radar.setLabel(matches + " matches of \"" + query + "\" in " + hits.size() + " documents (" + elapsed + " ms)");
+    }
+    
+    protected class AnnotatorThread extends SwingWorker<Annotator.SegmentsTable, Integer> {
+        protected File annotations;
+        
+        /**
+         * @param annotations directory with annotation files
+         *        written by {@link Batch}, or <code>null</code>
+         */
+        public AnnotatorThread(File annotations) {
+            this.annotations = annotations;
+            zoomedPeriods.clear();
+        }
+        
+        public Annotator.SegmentsTable doInBackground() throws InterruptedException {
             progressBar.setValue(0);
             progressBar.setMaximum(documents.size());
             progressIndicator.setVisible(true);
             long start, stop;
             start = System.currentTimeMillis();
-            SegmentsTable segmentsInDocuments = new SegmentsTable();
-            int progress = 0;
-            for (Document document : documents) {
-                if (isCancelled()) break;
-                progressBar.setValue(++progress);
-                Document.SegmentList segments = annotateDocument(document);
-                segmentsInDocuments.put(document.getIdentifier(), segments);
+            Annotator.SegmentsTable segmentsInDocuments;
+            Annotator.ProgressListener listener = new Annotator.ProgressListener() {
+                    public void documentAnnotated(Document document, int count, int total)
+                    {
+                        publish(count);
+                    }
+                };
+            if (annotations != null) {
+                segmentsInDocuments = annotator.load(documents, annotations, listener);
+            }
+            else {
+                segmentsInDocuments = annotator.annotate(documents, listener);
             }
             documents.sort();
             stop = System.currentTimeMillis();
@@ -150,12 +602,19 @@ public class View
             return segmentsInDocuments;
         }
         
+        protected void process(java.util.List<Integer> counts) {
+            for (Integer count : counts) {
+                if (count > progressBar.getValue()) progressBar.setValue(count);
+            }
+        }
+        
         public void done() {
             try {
                 segmentsInDocuments = get();
                 visualizeEntities(documents, segmentsInDocuments);
                 view.setDividerLocation(view.getWidth() - view.getDividerSize() - (int) radar.getPreferredSize().getWidth() - 1);
                 showDocument();
+                indexForSearch();
             }
             catch (InterruptedException e) {
                 e.printStackTrace();
@@ -175,118 +634,112 @@ public class View
     
     protected boolean loadCollection(File directory)
     {
-        documents = new Document.Collection(directory);
+        documents = new Document.Collection(directory, memoryMapped);
         segmentsInDocuments = null;
         snowballFile = null;
+        searchIndexer = null;
+        searchThread  = null;
+        searchResults = null;
+        searchRow     = null;
+        searchQuery   = null;
         
         if (null == ocr)      ocr      = new OCR(documents);
         if (null == metadata) metadata = new Metadata(documents);
         if (null == tagger)   tagger   = new SimpleRegexp(documents);
+        annotator = new Annotator(ocr, metadata, tagger);
+        try {
+            annotator.setCache(new AnnotationCache(new File(directory, AnnotationCache.DEFAULT_DIRECTORY)));
+        }
+        catch (java.io.IOException e) {
+            System.err.println("Annotation cache disabled: " + e);
+        }
         
         return true;
     }
     
-    protected void visualizeEntityTypes(Document.Collection documents, SegmentsTable segmentsInDocuments)
+    protected void visualizeEntityTypes(Document.Collection documents, Annotator.SegmentsTable segmentsInDocuments)
     {
         if (null == documents || null == segmentsInDocuments) return;
         
-        java.util.Set<String> types = new java.util.TreeSet<String>();
-        java.util.Vector<Map<String, Integer> > typeCounts = new java.util.Vector<Map<String, Integer> >();
-        
-        int maxCount = 0;
+        entityIndex = new EntityIndex(true);
         for (Document document : documents) {
             Document.SegmentList segments = segmentsInDocuments.get(document.getIdentifier());
             if (null == segments) segments = annotateDocument(document);
             
-            Map<String, Integer> typeCount = new Hashtable<String, Integer>();
-            for (Document.Segment segment : segments) {
-                String type = segment.get("pattern-name");
-                types.add(type);
-                Integer count = typeCount.get(type);
-                if (null == count) {
-                    count = new Integer(0);
-                }
-                ++count;
-                typeCount.put(type, count);
-                if (count > maxCount) maxCount = count;
-            }
-            typeCounts.add(typeCount);
+            entityIndex.put(document, segments);
         }
         
-        radar.setDataSize(documents.size(), types.size());
-        
-        setRows(radar, types, typeCounts, maxCount);
+        setRows(radar, entityIndex.getEntities(), entityIndex);
     }
     
     protected java.util.Vector<String> rowLabels, columnLabels;
-    protected void visualizeEntities(Document.Collection documents, SegmentsTable segmentsInDocuments)
+    protected void visualizeEntities(Document.Collection documents, Annotator.SegmentsTable segmentsInDocuments)
     {
         if (null == documents || null == segmentsInDocuments) return;
         
-        java.util.Set<String> types = new java.util.TreeSet<String>();
-        java.util.Vector<Map<String, Integer> > typeCounts = new java.util.Vector<Map<String, Integer> >();
-        
-        int maxCount = 0;
+        entityIndex = new EntityIndex();
         for (Document document : documents) {
             Document.SegmentList segments = segmentsInDocuments.get(document.getIdentifier());
             if (null == segments) segments = annotateDocument(document);
             
-            Map<String, Integer> typeCount = new Hashtable<String, Integer>();
-            for (Document.Segment segment : segments) {
-                String type = document.getPlainText(segment);
-                types.add(type);
-                Integer count = typeCount.get(type);
-                if (null == count) {
-                    count = new Integer(0);
-                }
-                ++count;
-                typeCount.put(type, count);
-                if (count > maxCount) maxCount = count;
-            }
-            typeCounts.add(typeCount);
+            entityIndex.put(document, segments);
         }
         
-        radar.setDataSize(documents.size(), types.size());
-        
-        setRows(radar, types, typeCounts, maxCount);
+        setRows(radar, entityIndex.getEntities(), entityIndex);
     }
     
-    protected void setRows(Radar radar, java.util.Set<String> types, java.util.Vector<Map<String, Integer> > typeCounts, int maxCount)
+    /**
+     * Fill the radar with a row for each entity and a column
+     * for each period of the timeline, adding up the mentions
+     * in the documents of the period.
+     * The results of {@link #searchAll(String)}, if any, go in the first row.
+     *
+     * @param entities index of the entities in the documents
+     */
+    protected void setRows(Radar radar, java.util.Set<String> types, EntityIndex entities)
     {
+        radarRows = new java.util.LinkedHashSet<String>();
+        if (searchRow != null) radarRows.add(searchRow);
+        radarRows.addAll(types);
+        timeline = createTimeline();
+        radar.setDataSize(timeline.size(), radarRows.size());
         rowLabels    = new java.util.Vector<String>();
         columnLabels = new java.util.Vector<String>();
-        columnLabels.addAll(types);
+        columnLabels.addAll(radarRows);
+        periodCounts = new java.util.Vector<Map<String, Integer> >();
         
-        int row = 0;
+        for (int period = 0; period < timeline.size(); ++period) {
+            Map<String, Integer> typeCount = timeline.getCounts(period, entities, searchResults);
+            periodCounts.add(typeCount);
+            rowLabels.add(timeline.getLabel(period));
+            radar.setColumn(timeline.getDate(period), period, columnValues(radarRows, typeCount));
+        }
+    }
+    
+    /**
+     * Get the intensities of a radar column from the mentions
+     * of each entity in a document.
+     */
+    protected double[] columnValues(java.util.Set<String> types, Map<String, Integer> typeCount)
+    {
         double[] counts = new double[types.size()];
-        Iterator<Document> documentIterator = documents.iterator();
-        for (Map<String, Integer> typeCount : typeCounts) {
-            int i = 0;
-            for (String type : types) {
-                Integer count = typeCount.get(type);
-                if (null == count || 0 == count) {
-                    counts[i] = 0.0;
-                }
-                else {
-                    // Map values to luminosity asymptotically towards 1.0,
-                    // to emphasize differences when the number of mentions
-                    // is low, starting with 0.2 for single occurrences
-                    // to make them visible.
-                    counts[i] = (((double) count) - 0.8) / ((double) count);
-                }
-                ++i;
+        int i = 0;
+        for (String type : types) {
+            Integer count = typeCount.get(type);
+            if (null == count || 0 == count) {
+                counts[i] = 0.0;
             }
-            
-            String date;
-            Document.Metadata.Values values;
-            values = documentIterator.next().getMetadata().get(Document.Metadata.date);
-            if (values != null) date = values.lastElement();
-            else                date = "BOGUS";
-            rowLabels.add(date);
-            
-            radar.setColumn(date, row, counts);
-            ++row;
+            else {
+                // Map values to luminosity asymptotically towards 1.0,
+                // to emphasize differences when the number of mentions
+                // is low, starting with 0.2 for single occurrences
+                // to make them visible.
+                counts[i] = (((double) count) - 0.8) / ((double) count);
+            }
+            ++i;
         }
+        
+        return counts;
     }
     
     protected File requestFile(String key, boolean forWriting, String filterDescription, String... extensions)
@@ -415,6 +868,17 @@ public class View
                 System.err.println("Collection loading cancelled");
             }
         }
+        else if ("load-annotations".equals(command)) {
+            File directory = requestDirectory("defaultAnnotations");
+            if (directory != null && documents != null) {
+                window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+                if (worker != null) worker.cancel(true);
+                segmentsInDocuments = null;
+                scheduler = null;
+                worker = new AnnotatorThread(directory);
+                worker.execute();
+            }
+        }
         else if ("load-snowball".equals(command)) {
             if (null == snowballFile) snowballFile = requestFile("snowball", false, "HTML files", "html", "htm", "xhtml");
             if (snowballFile != null) {
@@ -457,36 +921,59 @@ public class View
         }
         else if ("ner-engine-simple-regexp".equals(command)) {
             tagger = new SimpleRegexp(documents);
+            if (annotator != null) annotator.setTagger(tagger);
             segmentsInDocuments = null;
             visualize(documents);
         }
         else if ("ner-engine-opennlp-maxent".equals(command)) {
             tagger = new OpenNlpNER(documents);
+            if (annotator != null) annotator.setTagger(tagger);
             segmentsInDocuments = null;
             visualize(documents);
         }
         else if ("ner-engine-stanford".equals(command)) {
             tagger = new StanfordNER(documents);
+            if (annotator != null) annotator.setTagger(tagger);
+            segmentsInDocuments = null;
+            visualize(documents);
+        }
+        else if ("ner-engine-gazetteer".equals(command)) {
+            tagger = new Gazetteer(documents);
+            if (annotator != null) annotator.setTagger(tagger);
+            segmentsInDocuments = null;
+            visualize(documents);
+        }
+        else if ("ner-engine-ensemble".equals(command)) {
+            tagger = Ensemble.createDefault(documents);
+            if (annotator != null) annotator.setTagger(tagger);
             segmentsInDocuments = null;
             visualize(documents);
         }
         else if ("radar".equals(command)) {
             Radar.ActionEvent radarEvent = (Radar.ActionEvent) event;
-            if (columnLabels != null && rowLabels != null) {
+            if (Radar.ActionEvent.Action.SCREEN_SCROLL == radarEvent.getAction()) {
+                prioritizeVisible();
+            }
+            else if (columnLabels != null && rowLabels != null) {
                 switch (radarEvent.getAction()) {
                 case SCREEN_CLICK:
                     selectedRow    = radarEvent.getRow();
                     selectedColumn = radarEvent.getColumn();
-                    showDocument(documents.get(selectedColumn));
-                    searchBox.setText(columnLabels.get(selectedRow));
+                    showDocument(documentInPeriod(selectedColumn, columnLabels.get(selectedRow)));
+                    if (columnLabels.get(selectedRow).equals(searchRow)) searchBox.setText(searchQuery);
+                    else                                                 searchBox.setText(columnLabels.get(selectedRow));
                     documentView.search(searchBox.getText());
                     updateSearchButtons();
                     break;
+                case SCREEN_DOUBLE_CLICK:
+                    zoomIntoPeriod(radarEvent.getColumn());
+                    break;
                 case SCREEN_MOUSEOVER:
-                    radar.setLabel(rowLabels.get(radarEvent.getColumn()) + ", " + columnLabels.get(radarEvent.getRow()));
+                    radar.setLabel(rowLabels.get(radarEvent.getColumn()) + ", " + columnLabels.get(radarEvent.getRow())
+                                   + " (" + rowIndex(columnLabels.get(radarEvent.getRow())).getDocumentCount(columnLabels.get(radarEvent.getRow())) + " documents)");
                     break;
                 case SCREEN_LEAVE:
-                    if (selectedRow >= 0 && selectedColumn >= 0) {
+                    if (selectedRow >= 0 && selectedColumn >= 0 && selectedColumn < rowLabels.size()) {
                         radar.setLabel(rowLabels.get(selectedColumn) + ", " + columnLabels.get(selectedRow));
                     }
                     else {
@@ -508,21 +995,42 @@ public class View
         }
         else if ("radar-image-zoom-1".equals(command)) {
             radar.setZoom(1);
+            prioritizeVisible();
         }
         else if ("radar-image-zoom-2".equals(command)) {
             radar.setZoom(2);
+            prioritizeVisible();
         }
         else if ("radar-image-zoom-3".equals(command)) {
             radar.setZoom(3);
+            prioritizeVisible();
         }
         else if ("radar-image-zoom-4".equals(command)) {
             radar.setZoom(4);
+            prioritizeVisible();
         }
         else if ("radar-image-zoom-10".equals(command)) {
             radar.setZoom(10);
+            prioritizeVisible();
         }
         else if ("radar-image-zoom-20".equals(command)) {
             radar.setZoom(20);
+            prioritizeVisible();
+        }
+        else if (command != null && command.startsWith("radar-periods-")) {
+            String resolution = command.substring("radar-periods-".length()).toUpperCase(java.util.Locale.ENGLISH);
+            if ("AUTOMATIC".equals(resolution)) timeResolution = null;
+            else                                timeResolution = Timeline.Resolution.valueOf(resolution);
+            if (documents != null) redrawTimeline();
+        }
+        else if ("radar-zoom-into-period".equals(command)) {
+            zoomIntoPeriod(selectedColumn);
+        }
+        else if ("radar-zoom-out-period".equals(command)) {
+            if (! zoomedPeriods.isEmpty()) {
+                zoomedPeriods.pop();
+                redrawTimeline();
+            }
         }
         else if ("open-homepage".equals(command)) {
             String url = "http://historadar.googlecode.com/";
@@ -550,6 +1058,9 @@ public class View
         else if ("cancel".equals(command)) {
             if (worker != null) worker.cancel(true);
         }
+        else if ("search-all".equals(command)) {
+            searchAll(searchBox.getText());
+        }
         else if ("search-next".equals(command)) {
             documentView.moveToNextMatch();
         }
@@ -570,25 +1081,9 @@ public class View
     
     protected Document.SegmentList annotateDocument(Document document)
     {
-        if (null == document) return null;
-        
-        System.err.println("Processing document " + document.getIdentifier());
-        
-        // OCR correction
-        System.err.println("Correcting OCR...");
-        int corrections = ocr.correctDocument(document);
-        System.err.println("Corrected " + corrections + " errors from the OCR text");
-        
-        // Metadata extraction
-        System.err.println("Extracting metadata...");
-        Document.Metadata entries = metadata.getMetadata(document);
-        document.getMetadata().putAll(entries);
+        if (null == document || null == annotator) return null;
         
-        System.err.println("Tagging text...");
-        Document.SegmentList segments;
-        segments = tagger.getEntities(document);
-        
-        return segments;
+        return annotator.annotateDocument(document);
     }
     
     protected JTextField label(String text)
@@ -642,7 +1137,16 @@ public class View
         else {
             segments = null;
         }
-        if (null == segments) segments = annotateDocument(document);
+        if (null == segments) {
+            if (scheduler != null) {
+                // Show it without entities until the scheduler gets to it.
+                if (! scheduler.isClaimed(document)) scheduler.prioritize(document);
+                segments = new Document.SegmentList();
+            }
+            else {
+                segments = annotateDocument(document);
+            }
+        }
         
         documentView.setText(document, segments);
         
@@ -696,6 +1200,7 @@ public class View
                 }
                 
             });
+        button(searchPane, "search-all",      "All").setToolTipText("Search all documents");
         button(searchPane, "search-next",     "↓").setToolTipText("Next match");
         button(searchPane, "search-previous", "↑").setToolTipText("Previous match");
         button(searchPane, "add-to-snowball", " + ").setToolTipText("Add to snowball");
@@ -733,6 +1238,7 @@ public class View
         
         menu = new JMenu("File");
         menuItem(menu, "load-collection", "Load collection");
+        menuItem(menu, "load-annotations", "Load annotations");
         menu.addSeparator();
         menuItem(menu, "load-snowball", "Load snowball");
         menuItem(menu, "save-snowball", "Save snowball");
@@ -747,7 +1253,9 @@ public class View
                   new String[][] {
                       {"ner-engine-simple-regexp", "Simple regexp (built-in)"},
                       {"ner-engine-opennlp-maxent", "OpenNLP Maxent"},
-                      {"ner-engine-stanford", "Stanford NER"}
+                      {"ner-engine-stanford", "Stanford NER"},
+                      {"ner-engine-gazetteer", "Gazetteer"},
+                      {"ner-engine-ensemble", "Ensemble (all engines)"}
                   });
         menuBar.add(menu);
         
@@ -767,6 +1275,18 @@ public class View
                       {"radar-image-zoom-10", "10×"},
                       {"radar-image-zoom-20", "20×"}
                   });
+        menu.add(submenu = new JMenu("Periods"));
+        menuGroup(submenu,
+                  new String[][] {
+                      {"radar-periods-automatic", "Automatic"},
+                      {"radar-periods-document", "Document"},
+                      {"radar-periods-day", "Day"},
+                      {"radar-periods-week", "Week"},
+                      {"radar-periods-month", "Month"},
+                      {"radar-periods-year", "Year"}
+                  });
+        menuItem(menu, "radar-zoom-into-period", "Zoom into selected period");
+        menuItem(menu, "radar-zoom-out-period", "Zoom out of period");
         
         menuBar.add(menu);
         
@@ -851,6 +1371,12 @@ public class View
         else if ("org.matracas.historadar.nlp.ner.StanfordNER".equals(taggerClass)) {
             command = "ner-engine-stanford";
         }
+        else if ("org.matracas.historadar.nlp.ner.Gazetteer".equals(taggerClass)) {
+            command = "ner-engine-gazetteer";
+        }
+        else if ("org.matracas.historadar.nlp.ner.Ensemble".equals(taggerClass)) {
+            command = "ner-engine-ensemble";
+        }
         else {
             if (taggerClass != null) System.err.println("Error: unknown tagger class: " + taggerClass);
             command = "";
@@ -887,6 +1413,13 @@ public class View
             menuItems.get(command).setSelected(true);
         }
         
+        if (null == timeResolution) command = "radar-periods-automatic";
+        else                        command = "radar-periods-" + timeResolution.name().toLowerCase(java.util.Locale.ENGLISH);
+        
+        if (menuItems.containsKey(command)) {
+            menuItems.get(command).setSelected(true);
+        }
+        
         if (radar.getFuzzy()) command = "radar-image-fuzzy";
         else                  command = "radar-image-sharp";
         
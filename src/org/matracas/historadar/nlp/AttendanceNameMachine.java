@@ -7,8 +7,6 @@ import java.text.DateFormat;
 import java.util.*;
 import org.matracas.historadar.Document;
 
-import com.sun.org.apache.bcel.internal.classfile.JavaClass;
-
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,6 +16,9 @@ import java.util.regex.Pattern;
  *
  */
 public class AttendanceNameMachine {
+	protected static final Pattern ATTENDANCE_BLOCK = Pattern.compile("present ?:(.*?)(\f|[1\\]] ?\\.)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE | Pattern.CANON_EQ);
+	protected static final Pattern ATTENDANCE_NAME = Pattern.compile("([A-Z][ .]{1,2}\\. ?(?:[A-Z]{1,2}\\.)?)\\s+([A-Z]+[ -]?[A-Z]*)(\\*?)([,.])", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE | Pattern.CANON_EQ);
+	
 	ArrayList<String> titles;
 	ArrayList<String> positions;
 	ArrayList<String> firstNames;
@@ -47,8 +48,7 @@ public class AttendanceNameMachine {
 	private String getAttendanceBlock(Document document){
 		String attendanceBlock = "";
 		
-		Pattern pattern = Pattern.compile("present ?:(.*?)(\f|[1\\]] ?\\.)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE | Pattern.CANON_EQ);
-		Matcher matcher = pattern.matcher(document.getPlainText());
+		Matcher matcher = ATTENDANCE_BLOCK.matcher(document.getText());
 		
         if (matcher.find()){
 	        attendanceBlock = matcher.group(1);
@@ -84,8 +84,7 @@ public class AttendanceNameMachine {
 	 */
 	public ArrayList<String> getAttendanceNames(String attendanceBlock){
 		ArrayList<String> attendanceNames = new ArrayList<String>();
-		Pattern pattern = Pattern.compile("([A-Z][ .]{1,2}\\. ?(?:[A-Z]{1,2}\\.)?)\\s+([A-Z]+[ -]?[A-Z]*)(\\*?)([,.])", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE | Pattern.CANON_EQ);
-		Matcher matcher = pattern.matcher(attendanceBlock);
+		Matcher matcher = ATTENDANCE_NAME.matcher(attendanceBlock);
 		
         while (matcher.find()){
 	        attendanceNames.add(matcher.group(0));
@@ -0,0 +1,544 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar.nlp;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.matracas.historadar.Document;
+
+/**
+ * Scanner for the meeting date and time in the minutes,
+ * as in "held at 10 Downing Street on Monday, 5 October, 1914,
+ * at 11.30 a.m.".
+ *
+ * It finds the same phrases as the regular expressions used before
+ * by {@link Metadata}, trying the alternatives in the same order,
+ * but with direct character comparisons and table lookups,
+ * and looking for the end of the phrase in a bounded window:
+ * after the month or weekday name, the phrase must end with
+ * "a.m.", "p.m." or "noon" within {@link #MAXIMUM_PHRASE} characters.
+ * The regular expression would instead search the rest of the document
+ * for each candidate, which made documents without a date very slow.
+ * <br/>
+ * Word characters are <tt>[a-zA-Z_0-9]</tt>, except for the word boundary
+ * after the month name which, as in regular expressions,
+ * looks at any letter or digit.
+ * Instances have no state and can be shared by several threads.
+ */
+public class DateScanner
+{
+    /**
+     * Maximum number of characters between "held" and the month name.
+     */
+    public static final int MAXIMUM_GAP = 60;
+    
+    /**
+     * Maximum number of characters between the month name
+     * and the end of the phrase.
+     */
+    public static final int MAXIMUM_PHRASE = 200;
+    
+    protected static final String[] MONTHS = {
+        "january", "february", "march", "april", "may", "june",
+        "july", "august", "september", "october", "november", "december"
+    };
+    protected static final String[] WEEKDAYS = {
+        "monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"
+    };
+    protected static final Map<String, Integer> MONTH_NUMBERS   = numbers(MONTHS);
+    protected static final Map<String, Integer> WEEKDAY_NUMBERS = numbers(WEEKDAYS);
+    
+    /**
+     * A word ending, preceded by a number of word characters.
+     */
+    protected static class Ending
+    {
+        protected final String text;
+        protected final int minimumPrefix, maximumPrefix;
+        
+        protected Ending(String text, int minimumPrefix, int maximumPrefix)
+        {
+            this.text = text;
+            this.minimumPrefix = minimumPrefix;
+            this.maximumPrefix = maximumPrefix;
+        }
+        
+        /**
+         * @return the end of the match with the given prefix length
+         *         starting at the position, or -1 if none
+         */
+        protected int match(CharSequence text, int position, int prefix, int wordEnd)
+        {
+            if (prefix < minimumPrefix || prefix > maximumPrefix) return -1;
+            if (position + prefix > wordEnd) return -1;
+            if (! matches(text, position + prefix, this.text)) return -1;
+            
+            return position + prefix + this.text.length();
+        }
+    }
+    
+    protected static final int ANY = Integer.MAX_VALUE;
+    
+    /** The month or weekday name after "held", tried in this order. */
+    protected static final Ending[] PHRASE_START = {
+        new Ending("day",    1, ANY),
+        new Ending("uary",   1, ANY),
+        new Ending("march",  0, 0),
+        new Ending("april",  0, 0),
+        new Ending("may",    0, 0),
+        new Ending("june",   0, 0),
+        new Ending("july",   0, 0),
+        new Ending("august", 0, 0),
+        new Ending("mber",   1, ANY),
+        new Ending("ober",   1, ANY)
+    };
+    
+    /** The month name inside the phrase, tried in this order. */
+    protected static final Ending[] MONTH = {
+        new Ending("ry",  1, ANY),
+        new Ending("ber", 1, ANY),
+        new Ending("rch", 1, ANY),
+        new Ending("ril", 1, ANY),
+        new Ending("may", 0, 0),
+        new Ending("une", 1, 1),
+        new Ending("ly",  1, ANY),
+        new Ending("ust", 1, ANY)
+    };
+    
+    protected static final Ending WEEKDAY = new Ending("day", 1, ANY);
+    
+    /**
+     * A date and time found in a document.
+     */
+    public static class DateTime
+    {
+        protected final String phrase;
+        protected final int begin, end;
+        protected final int year, month, day, weekday, hour, minute;
+        protected final String dayTime;
+        
+        public DateTime(String phrase, int begin, int end,
+                        int year, int month, int day, int weekday,
+                        int hour, int minute, String dayTime)
+        {
+            this.phrase  = phrase;
+            this.begin   = begin;
+            this.end     = end;
+            this.year    = year;
+            this.month   = month;
+            this.day     = day;
+            this.weekday = weekday;
+            this.hour    = hour;
+            this.minute  = minute;
+            this.dayTime = dayTime;
+        }
+        
+        /** @return the phrase as found in the text */
+        public String getPhrase() { return phrase; }
+        /** @return offset of the phrase in the text */
+        public int getBegin()     { return begin;  }
+        /** @return offset after the end of the phrase in the text */
+        public int getEnd()       { return end;    }
+        /** @return the year, or 0 if not found */
+        public int getYear()      { return year;   }
+        /** @return the month from 1 to 12, or 0 if not found */
+        public int getMonth()     { return month;  }
+        /** @return the day of the month, or 0 if not found */
+        public int getDay()       { return day;    }
+        /** @return the day of the week from 1 (Monday) to 7, or 0 if not found */
+        public int getWeekday()   { return weekday; }
+        /** @return the hour from 0 to 23, or 0 if not found */
+        public int getHour()      { return hour;   }
+        /** @return the minute, or 0 if not found */
+        public int getMinute()    { return minute; }
+        /** @return "a.m.", "p.m.", "noon", or "" if not found */
+        public String getDayTime() { return dayTime; }
+        
+        /**
+         * @return minutes since 1970-01-01 00:00, or
+         *         {@link Document#NO_DATE} if the year was not found
+         * @see Document#getDate()
+         */
+        public long getDate()
+        {
+            return Document.epochMinute(year, month, day, hour, minute);
+        }
+        
+        /**
+         * @return the date as "<tt>yyyy-mm-dd h:mm (a.m.)</tt>",
+         *         the format of the metadata entries
+         */
+        public String toString()
+        {
+            return String.format("%4d-%02d-%02d %d:%02d (%s)", year, month, day, hour, minute, dayTime);
+        }
+    }
+    
+    /**
+     * Find the meeting date in a text.
+     *
+     * @param text where to look for the date
+     * @return the first date found, or <code>null</code> if none
+     * @throws NumberFormatException if a number in the phrase is too long
+     */
+    public DateTime scan(CharSequence text)
+    {
+        int[] phrase = findPhrase(text);
+        if (null == phrase) return null;
+        
+        return parse(text.subSequence(phrase[0], phrase[1]).toString(), phrase[0], phrase[1]);
+    }
+    
+    /**
+     * Find the meeting date phrase in a text, after the word "held".
+     *
+     * @param text where to look for the phrase
+     * @return the offsets of the start and end of the phrase,
+     *         or <code>null</code> if none
+     */
+    public int[] findPhrase(CharSequence text)
+    {
+        int length = text.length();
+        for (int held = 0; held + 4 < length; ++held) {
+            char c = text.charAt(held);
+            if ('h' != c && 'H' != c && ! matches(c, 'h')) continue;
+            if (! matches(text, held, "held")) continue;
+            
+            int gapEnd = Math.min(length, held + 4 + MAXIMUM_GAP);
+            for (int start = held + 5; start <= gapEnd; ++start) {
+                int wordEnd = wordEnd(text, start);
+                for (Ending ending : PHRASE_START) {
+                    // Shortest match first, like a reluctant quantifier.
+                    int maximumPrefix = Math.min(ending.maximumPrefix, wordEnd - start);
+                    for (int prefix = ending.minimumPrefix; prefix <= maximumPrefix; ++prefix) {
+                        int nameEnd = ending.match(text, start, prefix, wordEnd);
+                        if (nameEnd < 0 || ! isWordBoundary(text, nameEnd)) continue;
+                        int end = findPhraseEnd(text, nameEnd + 1);
+                        if (end >= 0) return new int[] { start, end };
+                    }
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Find the first "a.m.", "p.m." or "noon" ending,
+     * starting in the window after the given position.
+     *
+     * @return the offset after the ending, or -1 if none
+     */
+    protected int findPhraseEnd(CharSequence text, int from)
+    {
+        int length = text.length();
+        int limit = Math.min(length, from + MAXIMUM_PHRASE);
+        for (int i = from; i < limit; ++i) {
+            char c = text.charAt(i);
+            if ('.' == c || ',' == c) {
+                int m = i + 1;
+                if (m < length && ' ' == text.charAt(m)) ++m;
+                if (m < length && matches(text.charAt(m), 'm')) {
+                    int end = m + 1;
+                    if (end < length && ('.' == text.charAt(end) || ',' == text.charAt(end))) ++end;
+                    return end;
+                }
+            }
+            else if (i + 3 <= length && matches(text, i, "oon")) {
+                return i + 3;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Extract the date and time from a phrase.
+     *
+     * @param phrase the text of the phrase
+     * @param begin offset of the phrase in the document
+     * @param end offset after the phrase in the document
+     * @return the date, with 0 for the parts not found
+     * @throws NumberFormatException if a number in the phrase is too long
+     */
+    public DateTime parse(String phrase, int begin, int end)
+    {
+        int length = phrase.length();
+        
+        // Day of week: the first word with "day" after some letters.
+        int weekday = 0;
+        for (int i = 0; i < length; ++i) {
+            int match = matchGreedy(phrase, i, WEEKDAY);
+            if (match >= 0) {
+                weekday = lookUp(WEEKDAY_NUMBERS, phrase.substring(i, match));
+                break;
+            }
+        }
+        
+        // Month: the first month-like word, which must be a full name.
+        int month = 0;
+        for (int i = 0; i < length; ++i) {
+            int match = matchMonth(phrase, i);
+            if (match >= 0) {
+                month = lookUp(MONTH_NUMBERS, phrase.substring(i, match));
+                break;
+            }
+        }
+        
+        // Year: the last year-like number, after some month-like word.
+        int year = 0;
+        for (int i = length - 4; i > 0; --i) {
+            if (isYear(phrase, i)) {
+                if (firstMonthEnd(phrase) < i) year = Integer.parseInt(phrase.substring(i, i + 4));
+                break;
+            }
+        }
+        
+        // Day of month: digits before or after a month-like word.
+        int day = 0;
+        for (int i = 0; i < length; ++i) {
+            String digits = dayOfMonth(phrase, i);
+            if (digits != null) {
+                day = Integer.parseInt(digits);
+                break;
+            }
+        }
+        
+        // Hour and minute: "at" followed by digits.
+        int hour = 0, minute = 0;
+        for (int i = 0; i + 2 < length; ++i) {
+            if (! matches(phrase, i, "at")) continue;
+            int j = i + 2;
+            while (j < length && isSpace(phrase.charAt(j))) ++j;
+            if (j == i + 2 || j == length || ! isDigit(phrase.charAt(j))) continue;
+            int hourStart = j++;
+            if (j < length && isDigit(phrase.charAt(j))) ++j;
+            hour = Integer.parseInt(phrase.substring(hourStart, j));
+            for (int separators = 0; separators < 4 && j < length && isTimeSeparator(phrase.charAt(j)); ++separators) ++j;
+            int minuteStart = j;
+            while (j < length && isDigit(phrase.charAt(j))) ++j;
+            if (j > minuteStart) minute = Integer.parseInt(phrase.substring(minuteStart, j));
+            break;
+        }
+        
+        // Time of day.
+        String dayTime = "";
+        for (int i = 0; i < length; ++i) {
+            if (i + 1 < length && '.' == phrase.charAt(i + 1)) {
+                if (matches(phrase.charAt(i), 'a')) { dayTime = "a.m."; break; }
+                if (matches(phrase.charAt(i), 'p')) { dayTime = "p.m."; break; }
+            }
+            if (i + 4 <= length && matches(phrase, i, "noon")) { dayTime = "noon"; break; }
+        }
+        // "12.30 p.m." is half past noon, already in the 24-hour clock:
+        if ("p.m.".equals(dayTime) && hour < 12) hour += 12;
+        
+        return new DateTime(phrase, begin, end, year, month, day, weekday, hour, minute, dayTime);
+    }
+    
+    /**
+     * @return the end of the longest match of the ending at the position,
+     *         or -1 if none
+     */
+    protected static int matchGreedy(CharSequence text, int position, Ending ending)
+    {
+        int wordEnd = wordEnd(text, position);
+        int maximumPrefix = Math.min(ending.maximumPrefix, wordEnd - position);
+        for (int prefix = maximumPrefix; prefix >= ending.minimumPrefix; --prefix) {
+            int end = ending.match(text, position, prefix, wordEnd);
+            if (end >= 0) return end;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * @return the end of the first month-like word at the position,
+     *         or -1 if none
+     */
+    protected static int matchMonth(CharSequence text, int position)
+    {
+        for (Ending ending : MONTH) {
+            int end = matchGreedy(text, position, ending);
+            if (end >= 0) return end;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * @return the earliest end of any month-like word in the text,
+     *         or the text length if none
+     */
+    protected static int firstMonthEnd(CharSequence text)
+    {
+        int first = text.length();
+        for (int i = 0; i < first; ++i) {
+            int wordEnd = wordEnd(text, i);
+            for (Ending ending : MONTH) {
+                int maximumPrefix = Math.min(ending.maximumPrefix, wordEnd - i);
+                for (int prefix = ending.minimumPrefix; prefix <= maximumPrefix; ++prefix) {
+                    int end = ending.match(text, i, prefix, wordEnd);
+                    if (end >= 0) {
+                        if (end < first) first = end;
+                        break;
+                    }
+                }
+            }
+        }
+        
+        return first;
+    }
+    
+    /**
+     * Match one or two digits followed within five characters by
+     * a month-like word, or a month-like word followed by one or two
+     * spaces and one or two digits.
+     *
+     * @return the digits, or <code>null</code> if none at the position
+     */
+    protected static String dayOfMonth(CharSequence text, int position)
+    {
+        int length = text.length();
+        if (isDigit(text.charAt(position))) {
+            int digits = (position + 1 < length && isDigit(text.charAt(position + 1))) ? 2 : 1;
+            for (; digits >= 1; --digits) {
+                for (int gap = 5; gap >= 1; --gap) {
+                    int month = position + digits + gap;
+                    if (month < length && matchMonth(text, month) >= 0) {
+                        return text.subSequence(position, position + digits).toString();
+                    }
+                }
+            }
+        }
+        
+        int wordEnd = wordEnd(text, position);
+        for (Ending ending : MONTH) {
+            int maximumPrefix = Math.min(ending.maximumPrefix, wordEnd - position);
+            for (int prefix = maximumPrefix; prefix >= ending.minimumPrefix; --prefix) {
+                int end = ending.match(text, position, prefix, wordEnd);
+                if (end < 0) continue;
+                int spaces = 0;
+                while (spaces < 2 && end + spaces < length && isSpace(text.charAt(end + spaces))) ++spaces;
+                int digit = end + spaces;
+                if (0 == spaces || digit >= length || ! isDigit(text.charAt(digit))) continue;
+                int digitsEnd = digit + 1;
+                if (digitsEnd < length && isDigit(text.charAt(digitsEnd))) ++digitsEnd;
+                return text.subSequence(digit, digitsEnd).toString();
+            }
+        }
+        
+        return null;
+    }
+    
+    protected static boolean isYear(CharSequence text, int position)
+    {
+        char c = text.charAt(position);
+        return ('1' == c || '2' == c)
+            && isDigit(text.charAt(position + 1))
+            && isDigit(text.charAt(position + 2))
+            && isDigit(text.charAt(position + 3));
+    }
+    
+    protected static int lookUp(Map<String, Integer> numbers, String name)
+    {
+        Integer number = numbers.get(name.toLowerCase(java.util.Locale.ENGLISH));
+        return (null == number) ? 0 : number;
+    }
+    
+    protected static Map<String, Integer> numbers(String[] names)
+    {
+        Map<String, Integer> numbers = new HashMap<String, Integer>();
+        for (int i = 0; i < names.length; ++i) numbers.put(names[i], i + 1);
+        
+        return numbers;
+    }
+    
+    /**
+     * @return the end of the run of word characters at the position
+     */
+    protected static int wordEnd(CharSequence text, int position)
+    {
+        int length = text.length();
+        while (position < length && isWord(text.charAt(position))) ++position;
+        
+        return position;
+    }
+    
+    protected static boolean isWordBoundary(CharSequence text, int position)
+    {
+        boolean before = position > 0 && isBoundaryWord(text.charAt(position - 1));
+        boolean after  = position < text.length() && isBoundaryWord(text.charAt(position));
+        
+        return before != after;
+    }
+    
+    protected static boolean isBoundaryWord(char c)
+    {
+        return Character.isLetterOrDigit(c) || '_' == c;
+    }
+    
+    protected static boolean isWord(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || '_' == c;
+    }
+    
+    protected static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+    
+    protected static boolean isSpace(char c)
+    {
+        return ' ' == c || '\t' == c || '\n' == c || '\u000B' == c || '\f' == c || '\r' == c;
+    }
+    
+    protected static boolean isTimeSeparator(char c)
+    {
+        return '-' == c || ' ' == c || '*' == c || '.' == c || '\\' == c || matches(c, 'o');
+    }
+    
+    /**
+     * Compare a character with a lower case letter, ignoring case.
+     */
+    protected static boolean matches(char c, char lower)
+    {
+        if (c < 128) return c == lower || (c >= 'A' && c <= 'Z' && c + ('a' - 'A') == lower);
+        
+        return Character.toLowerCase(c) == lower
+            || Character.toUpperCase(c) == Character.toUpperCase(lower);
+    }
+    
+    /**
+     * Compare the text at the position with a lower case word, ignoring case.
+     */
+    protected static boolean matches(CharSequence text, int position, String lower)
+    {
+        if (position + lower.length() > text.length()) return false;
+        for (int i = 0; i < lower.length(); ++i) {
+            if (! matches(text.charAt(position + i), lower.charAt(i))) return false;
+        }
+        
+        return true;
+    }
+}
@@ -27,18 +27,18 @@ import java.sql.Time;
 import java.text.DateFormat;
 import org.matracas.historadar.Document;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Metadata extracted from a document.
  *
  */
 public class Metadata
 {
+    protected DateScanner dateScanner;
+    
     public Metadata(Document.Collection collection)
     {
         // TODO: linguistic analysis of the collection, if necessary
+        dateScanner = new DateScanner();
     }
     
     /**
@@ -65,142 +65,43 @@ public class Metadata
     public Document.Metadata getMetadata(Document document)
     {
         Document.Metadata entries = new Document.Metadata();
-        String plainText = document.getPlainText();
-                
-        String monthString = "";
-        String dayString = "";
-        String dayOfWeekString = "";
-        String yearString = "";
-        String hourString = ""; 
-		String minuteString = "";
-		String dayTimeString = ""; // "a" OR "p" (a.m. or p.m.)
-		
-		Integer month = 0;
-		Integer day = 0;
-		Integer year = 0;
-		Integer hour = 0;   // > 12 if dayTimeString.contains("p")
-		Integer minute = 0;
-		
-		try {
-	        entries.add(entries.title, "NO TITLE FOUND YET");
-	        
-	        Pattern pattern = Pattern.compile("held.{1,60}?((\\w+?day|\\w+?uary|march|april|may|june|july|august|\\w+?mber|\\w+?ober)\\b.+?(?:[.,] ?m[.,]?|oon))", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE | Pattern.CANON_EQ); //Thanks to http://www.regular-expressions.info/java.html
-	        Matcher matcher = pattern.matcher(plainText);
-	        if (matcher.find()){
-	        	String plainDate = matcher.group(1);
-	        	entries.add(entries.date, plainDate);
-		        
-	        	// Day of week
-	        	pattern = pattern.compile("\\w+day", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE);
-		        matcher = pattern.matcher(plainDate);
-		        if(matcher.find()){
-		            dayOfWeekString = matcher.group(0);
-		            // entries.add(entries.date, dayOfWeekString);
-			    }
-		        
-		        // Month
-		        pattern = pattern.compile("\\w+ry|\\w+ber|\\w+rch|\\w+ril|may|\\wune|\\w+ly|\\w+ust", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE);
-		        matcher = pattern.matcher(plainDate);
-		        if(matcher.find()){
-		            monthString = matcher.group(0);
-		            // entries.add(entries.date, monthString);
-				}
-		        
-		        // Year:
-		        pattern = pattern.compile("(?:\\w+ry|\\w+ber|\\w+rch|\\w+ril|may|\\wune|\\w+ly|\\w+ust).+([12]\\d{3})", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE);
-		        matcher = pattern.matcher(plainDate);
-		        if(matcher.find()){
-		            yearString = matcher.group(1);
-		            // entries.add(entries.date, yearString);
-				}
-		        
-		        // Day of month: (digits before or after month)
-		        pattern = pattern.compile("(\\d\\d?).{1,5}(?:\\w+ry|\\w+ber|\\w+rch|\\w+ril|may|\\wune|\\w+ly|\\w+ust)|(?:\\w+ry|\\w+ber|\\w+rch|\\w+ril|may|\\wune|\\w+ly|\\w+ust)\\s{1,2}(\\d\\d?)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE);
-		        matcher = pattern.matcher(plainDate);
-		        if(matcher.find()){
-		        	if (matcher.start(1) == matcher.end(1)){
-		        		dayString = matcher.group(2);
-		        	}
-		        	else {
-		        		dayString = matcher.group(1);
-		        	}
-		            // entries.add(entries.date, dayString);
-				}
-		        
-		        // Hour and minute
-		        pattern = pattern.compile("at\\s+(\\d{1,2})[- *o\\\\.]{0,4}(\\d*) ?(a|p|n)?", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE);
-		        matcher = pattern.matcher(plainDate);
-		        if(matcher.find()){
-		            hourString = matcher.group(1);
-		            minuteString = matcher.group(2);
-		            // entries.add(entries.date, hourString + ":" + minuteString);
-				}
-		        
-		        // Time of day
-		        pattern = pattern.compile("(a\\..*|p\\..*|noon.*)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL | Pattern.UNICODE_CASE);
-		        matcher = pattern.matcher(plainDate);
-		        if(matcher.find()){
-		            if (matcher.group(1).toLowerCase().startsWith("a")) {
-						dayTimeString = "a.m.";
-					} else if (matcher.group(1).toLowerCase().startsWith("p")) {
-						dayTimeString = "p.m.";
-					} else if (matcher.group(1).toLowerCase().startsWith("n")) {
-						dayTimeString = "noon";
-					} else {
-						dayTimeString = "I have no idea how you can possibly get here.";
-					}
-		            // entries.add(entries.date, dayTimeString);
-				}
-		        
-		        
-		        /* Conversion of time values to Integers */
-		        // Month:
-		        if (monthString.equalsIgnoreCase("january")) {
-					month = 1;
-				} else if (monthString.equalsIgnoreCase("february")) {
-					month = 2;
-				} else if (monthString.equalsIgnoreCase("march")) {
-					month = 3;
-				} else if (monthString.equalsIgnoreCase("april")) {
-					month = 4;
-				} else if (monthString.equalsIgnoreCase("may")) {
-					month = 5;
-				} else if (monthString.equalsIgnoreCase("june")) {
-					month = 6;
-				} else if (monthString.equalsIgnoreCase("july")) {
-					month = 7;
-				} else if (monthString.equalsIgnoreCase("august")) {
-					month = 8;
-				} else if (monthString.equalsIgnoreCase("september")) {
-					month = 9;
-				} else if (monthString.equalsIgnoreCase("october")) {
-					month = 10;
-				} else if (monthString.equalsIgnoreCase("november")) {
-					month = 11;
-				} else if (monthString.equalsIgnoreCase("december")) {
-					month = 12;
-				} else {
-					month = 0;
-				}
-		        
-		        if (!dayString.equals("")) {day = Integer.parseInt(dayString);}
-		        if (!yearString.equals("")) {year = Integer.parseInt(yearString);}
-		        if (!hourString.equals("")) {hour = Integer.parseInt(hourString);}
-		        if (!minuteString.equals("")) {minute = Integer.parseInt(minuteString);}
-		        
-		        if (dayTimeString.toLowerCase().startsWith("p")) {
-					hour += 12;
-				}
-		        
-		        /* Adding time as split meta data */
-		        entries.add(entries.date, String.format("%4d-%02d-%02d %d:%02d (%s)", year, month, day, hour, minute, dayTimeString));
-	        }
-		}
-	    catch(Exception e){
-	    	entries.add(entries.date, e.getLocalizedMessage());
-	    	System.out.println(e.getLocalizedMessage());
-	    }
-	    return entries;
+        CharSequence plainText = document.getText();
+        
+        entries.add(entries.title, "NO TITLE FOUND YET");
+        int[] phrase = dateScanner.findPhrase(plainText);
+        if (phrase != null) {
+            String plainDate = plainText.subSequence(phrase[0], phrase[1]).toString();
+            entries.add(entries.date, plainDate);
+            try {
+                /* Adding time as split meta data */
+                DateScanner.DateTime date = dateScanner.parse(plainDate, phrase[0], phrase[1]);
+                String entry = date.toString();
+                entries.add(entries.date, entry);
+                document.setDate(entry, date.getDate());
+            }
+            catch (NumberFormatException e) {
+                entries.add(entries.date, e.getLocalizedMessage());
+                System.out.println(e.getLocalizedMessage());
+            }
+        }
+        
+        return entries;
+    }
+    
+    /**
+     * Get the date of the meeting recorded in the given document.
+     *
+     * @param document from which to extract the date
+     * @return the date, or <code>null</code> if not found
+     */
+    public DateScanner.DateTime getDate(Document document)
+    {
+        try {
+            return dateScanner.scan(document.getText());
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
     }
     
 }
@@ -0,0 +1,190 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar.nlp;
+
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Process-wide registry of the models used by the NLP components.
+ *
+ * Each model is loaded only once, the first time it is requested,
+ * and then shared by all the components that ask for it by name.
+ * If several threads request a model while it is being loaded,
+ * they all wait for the same load.
+ * <br/>
+ * The registry keeps only soft references to the models: a model stays
+ * in memory while some component uses it, and after that only until
+ * the Java virtual machine needs the memory, in which case it will be
+ * loaded again the next time it is requested.
+ * <br/>
+ * Models must not be modified after loading, since they are shared.
+ */
+public class ModelRegistry
+{
+    /**
+     * Loads a model from its source.
+     */
+    public interface Loader<T>
+    {
+        public T load() throws Exception;
+    }
+    
+    protected static class Entry
+    {
+        protected FutureTask<Object> loading;
+        protected SoftReference<Object> model;
+    }
+    
+    protected static final Map<String, Entry> entries = new HashMap<String, Entry>();
+    
+    private ModelRegistry()
+    {
+    }
+    
+    /**
+     * Get a model, loading it if it is not in memory.
+     *
+     * @param name name that identifies the model, such as its resource path
+     * @param loader used if the model needs to be loaded
+     * @return the model
+     * @throws Exception if the model could not be loaded
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String name, final Loader<T> loader) throws Exception
+    {
+        Entry entry;
+        FutureTask<Object> task = null;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(name);
+            if (entry != null) {
+                Object model = (entry.model != null) ? entry.model.get() : null;
+                if (model != null) return (T) model;
+                task = entry.loading;
+            }
+            if (null == task) {
+                task = new FutureTask<Object>(new Callable<Object>() {
+                        public Object call() throws Exception
+                        {
+                            return loader.load();
+                        }
+                    });
+                entry = new Entry();
+                entry.loading = task;
+                entries.put(name, entry);
+                owner = true;
+            }
+        }
+        
+        if (owner) task.run();
+        Object model;
+        try {
+            model = task.get();
+        }
+        catch (ExecutionException e) {
+            synchronized (entries) {
+                if (entries.get(name) == entry) entries.remove(name);
+            }
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+        synchronized (entries) {
+            if (entry.loading == task) {
+                entry.model = new SoftReference<Object>(model);
+                entry.loading = null;
+            }
+        }
+        
+        return (T) model;
+    }
+    
+    /**
+     * Start loading a model in a background thread, so that it is
+     * ready when requested later with {@link #get(String, Loader)}.
+     * Nothing is done if the model is already loaded or being loaded.
+     *
+     * @param name name that identifies the model
+     * @param loader used to load the model
+     */
+    public static void preload(final String name, final Loader<?> loader)
+    {
+        if (isLoaded(name)) return;
+        Thread thread = new Thread("preload " + name) {
+                public void run()
+                {
+                    try {
+                        get(name, loader);
+                    }
+                    catch (Exception e) {
+                        System.err.println("Error: can not preload model " + name + ": " + e);
+                    }
+                }
+            };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+    
+    /**
+     * Check whether a model is in memory or being loaded.
+     */
+    public static boolean isLoaded(String name)
+    {
+        synchronized (entries) {
+            Entry entry = entries.get(name);
+            if (null == entry) return false;
+            
+            return entry.loading != null || (entry.model != null && entry.model.get() != null);
+        }
+    }
+    
+    /**
+     * Forget a model, so that it can be garbage collected
+     * once no component uses it.
+     */
+    public static void evict(String name)
+    {
+        synchronized (entries) {
+            Entry entry = entries.get(name);
+            if (entry != null && null == entry.loading) entries.remove(name);
+        }
+    }
+    
+    /**
+     * Forget all the models that are not being loaded.
+     */
+    public static void clear()
+    {
+        synchronized (entries) {
+            java.util.Iterator<Entry> i = entries.values().iterator();
+            while (i.hasNext()) {
+                if (null == i.next().loading) i.remove();
+            }
+        }
+    }
+}
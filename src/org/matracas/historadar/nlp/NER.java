@@ -74,6 +74,34 @@ public abstract class NER
         return segments;
     }
     
+    /**
+     * Describe the configuration that determines the results of
+     * {@link #getEntities(Document)}, such as patterns or model names.
+     * Two taggers of the same class with the same configuration
+     * must produce the same entities.
+     *
+     * @return configuration description
+     */
+    public String getConfiguration()
+    {
+        return "";
+    }
+    
+    /**
+     * Whether {@link #getEntities(Document)} can be called
+     * from several threads at the same time.
+     * Taggers whose tools keep state between calls can still be
+     * thread safe by giving each thread its own tools,
+     * in a {@link ThreadLocal} or a pool,
+     * over models shared through {@link ModelRegistry}.
+     *
+     * @return <code>false</code> unless a subclass states otherwise
+     */
+    public boolean isThreadSafe()
+    {
+        return false;
+    }
+    
     public class Entities extends Vector<String>
     {
     };
@@ -24,7 +24,10 @@
 
 package org.matracas.historadar.nlp;
 
-import java.util.Map;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -32,20 +35,50 @@ import org.matracas.historadar.Document;
 
 /**
  * OCR analyzer and corrector.
+ *
+ * The corrections are done by a {@link RuleSet} of regular expression
+ * rules compiled once, which can be shared by all threads.
  */
 public class OCR
 {
+    /**
+     * The rules applied by default, in order.
+     */
+    public static final RuleSet DEFAULT_RULES = new RuleSet()
+        // Get rid of spaces within words. Unfortunately also concatenates (some) words --> splitter needed.
+        .add("spaces within words", "(\\b\\S)\\b\\s\\b", "$1")
+        // Separate words with capital letters in them.
+        .add("capitals within words", "([a-z])([A-Z0-9][a-z0-9]*?)", "$1 $2")
+        // Separate ("prefix"-)numbers from words.
+        .add("numbers before words", "(\\b\\d)([A-Za-z]{2,}?)", "$1 $2")
+        // Spaces within abbreviations
+        .add("spaces within abbreviations", "\\b([A-Z])\\s[.]\\s", "$1.")
+        // Separate (compound) abbreviations from following words
+        .add("abbreviations before words", "[.](\\w)(?![.])", ". $1");
+    
     protected Document.Collection collection;
+    protected RuleSet rules;
     
     public OCR(Document.Collection collection)
     {
         this.collection = collection;
+        rules = DEFAULT_RULES;
         /* Since the method "correctDocument" is called for each document from the document class,
          * no further action with the hole document collection necessary.
          * View -> ShowDocument -> annotateDocument();
          */
     }
     
+    public void setRules(RuleSet rules)
+    {
+        this.rules = rules;
+    }
+    
+    public RuleSet getRules()
+    {
+        return rules;
+    }
+    
     /**
      * Correct the OCR errors found in the given document.
      *
@@ -54,54 +87,298 @@ public class OCR
      */
     public int correctDocument(Document document)
     {
+        // TODO: correct text according to findings from the linguistic analysis of the document collection
+        
+        int[] counts = new int[rules.size()];
+        String correctedText = rules.apply(document.getText(), counts);
         int correctionCount = 0;
-        String text, correctedText;
-        text = document.getPlainText();
+        for (int count : counts) correctionCount += count;
         
-        // TODO: correct text according to findings from the linguistic analysis of the document collection
+        document.setText(correctedText);
+        return correctionCount;
+    }
+    
+    /**
+     * A correction: every match of the pattern is replaced
+     * by the replacement, where <code>$n</code> stands for
+     * the text matched by group <code>n</code> and <code>\</code>
+     * escapes the next character, as in {@link Matcher#replaceAll(String)}.
+     */
+    public static class Rule
+    {
+        protected final String name;
+        protected final Pattern pattern;
+        protected final String replacement;
+        // The replacement as literal parts, each followed by a group
+        // or -1 for none:
+        protected final String[] literals;
+        protected final int[] groups;
+        protected final AtomicLong corrections;
         
-        /* Get proper years:
-         * get rid of one or more spaces between single digits to get proper year representations (1 9 1 8 --> 1918)
-         */
-        Pattern pattern; 
-        Matcher matcher;
+        public Rule(String name, Pattern pattern, String replacement)
+        {
+            this.name        = name;
+            this.pattern     = pattern;
+            this.replacement = replacement;
+            corrections = new AtomicLong(0);
+            
+            int groupCount = pattern.matcher("").groupCount();
+            Vector<String>  literalParts = new Vector<String>();
+            Vector<Integer> groupParts   = new Vector<Integer>();
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < replacement.length()) {
+                char c = replacement.charAt(i++);
+                if ('\\' == c) {
+                    if (i == replacement.length()) throw new IllegalArgumentException("character to be escaped is missing in " + replacement);
+                    literal.append(replacement.charAt(i++));
+                }
+                else if ('$' == c) {
+                    if (i == replacement.length() || ! Character.isDigit(replacement.charAt(i))) {
+                        throw new IllegalArgumentException("illegal group reference in " + replacement);
+                    }
+                    int group = replacement.charAt(i++) - '0';
+                    // Take more digits while they make a valid group number.
+                    while (i < replacement.length() && Character.isDigit(replacement.charAt(i))) {
+                        int longer = group * 10 + replacement.charAt(i) - '0';
+                        if (longer > groupCount) break;
+                        group = longer;
+                        ++i;
+                    }
+                    if (group > groupCount) throw new IndexOutOfBoundsException("no group " + group + " in " + pattern);
+                    literalParts.add(literal.toString());
+                    groupParts.add(group);
+                    literal.setLength(0);
+                }
+                else {
+                    literal.append(c);
+                }
+            }
+            literalParts.add(literal.toString());
+            groupParts.add(-1);
+            
+            literals = literalParts.toArray(new String[literalParts.size()]);
+            groups = new int[groupParts.size()];
+            for (int j = 0; j < groups.length; ++j) groups[j] = groupParts.get(j);
+        }
         
-        correctedText = text;
+        public String  getName()        { return name;        }
+        public Pattern getPattern()     { return pattern;     }
+        public String  getReplacement() { return replacement; }
         
-        // Get rid of spaces within words. Unfortunately also concatenates (some) words --> splitter needed.
-        pattern = Pattern.compile("(\\b\\S)\\b\\s\\b");
-        matcher = pattern.matcher(text);
-        correctedText = matcher.replaceAll("$1");
-        correctionCount += matcher.groupCount();
+        /**
+         * @return how many corrections this rule has made
+         *         since it was created
+         */
+        public long getCorrections()
+        {
+            return corrections.get();
+        }
         
-        // Separate words with capital letters in them.
-        pattern = Pattern.compile("([a-z])([A-Z0-9][a-z0-9]*?)");
-        matcher = pattern.matcher(correctedText);
-        correctedText = matcher.replaceAll("$1 $2");
-        correctionCount += matcher.groupCount();
+        /**
+         * Write the text to the output with the corrections done.
+         *
+         * @param matcher a matcher for this rule's pattern, already reset
+         *        to the text
+         * @param text the text to correct
+         * @param output where the corrected text is appended
+         * @return how many matches were replaced by something different
+         */
+        protected int apply(Matcher matcher, CharSequence text, StringBuilder output)
+        {
+            int count = 0;
+            int position = 0;
+            while (matcher.find()) {
+                int start = matcher.start(), end = matcher.end();
+                output.append(text, position, start);
+                int replaced = output.length();
+                for (int i = 0; i < literals.length; ++i) {
+                    output.append(literals[i]);
+                    int group = groups[i];
+                    if (group >= 0 && matcher.start(group) >= 0) {
+                        output.append(text, matcher.start(group), matcher.end(group));
+                    }
+                }
+                if (! same(output, replaced, text, start, end)) ++count;
+                position = end;
+            }
+            output.append(text, position, text.length());
+            
+            return count;
+        }
         
-        // Separate ("prefix"-)numbers from words.
-        pattern = Pattern.compile("(\\b\\d)([A-Za-z]{2,}?)");
-        matcher = pattern.matcher(correctedText);
-        correctedText = matcher.replaceAll("$1 $2");
-        correctionCount += matcher.groupCount();
+        protected static boolean same(CharSequence a, int aStart, CharSequence b, int bStart, int bEnd)
+        {
+            if (a.length() - aStart != bEnd - bStart) return false;
+            for (int i = aStart, j = bStart; j < bEnd; ++i, ++j) {
+                if (a.charAt(i) != b.charAt(j)) return false;
+            }
+            
+            return true;
+        }
         
-        // Spaces within abbreviations
-        pattern = Pattern.compile("\\b([A-Z])\\s[.]\\s");
-        matcher = pattern.matcher(correctedText);
-        correctedText = matcher.replaceAll("$1.");
-        correctionCount += matcher.groupCount();
-
-        // Separate (compound) abbreviations from following words
-        pattern = Pattern.compile("[.](\\w)(?![.])");
-        matcher = pattern.matcher(correctedText);
-        correctedText = matcher.replaceAll(". $1");
-        correctionCount += matcher.groupCount();
-
-        document.setPlainText(correctedText);
-        return correctionCount;
+        public String toString()
+        {
+            return name + ": " + corrections.get();
+        }
     }
     
+    /**
+     * Rules applied in order, each one to the output of the previous.
+     *
+     * Each thread reuses its own matchers and two text buffers
+     * for all documents, so correcting a document creates
+     * only the final corrected string.
+     * Buffers that grew beyond {@link #MAXIMUM_BUFFER_CAPACITY}
+     * for a large document are dropped afterwards, so that each thread
+     * does not hold on to the size of the largest document it corrected.
+     * The rules must all be added before the set is used.
+     */
+    public static class RuleSet
+        implements Iterable<Rule>
+    {
+        /**
+         * Largest buffer capacity, in characters, kept between documents.
+         */
+        public static final int MAXIMUM_BUFFER_CAPACITY = 1 << 18;
+        
+        protected final List<Rule> rules;
+        protected final ThreadLocal<Buffers> buffers;
+        
+        protected class Buffers
+        {
+            protected Matcher[] matchers;
+            protected StringBuilder input, output;
+            
+            protected Buffers()
+            {
+                matchers = new Matcher[rules.size()];
+                for (int i = 0; i < matchers.length; ++i) {
+                    matchers[i] = rules.get(i).getPattern().matcher("");
+                }
+                input  = new StringBuilder();
+                output = new StringBuilder();
+            }
+            
+            protected void swap()
+            {
+                StringBuilder buffer = input;
+                input  = output;
+                output = buffer;
+            }
+            
+            /**
+             * Empty the buffers, replacing those that got too large.
+             */
+            protected void trim()
+            {
+                if (input.capacity()  > MAXIMUM_BUFFER_CAPACITY) input  = new StringBuilder();
+                else                                              input.setLength(0);
+                if (output.capacity() > MAXIMUM_BUFFER_CAPACITY) output = new StringBuilder();
+                else                                              output.setLength(0);
+            }
+        }
+        
+        public RuleSet()
+        {
+            rules = new Vector<Rule>();
+            buffers = new ThreadLocal<Buffers>() {
+                    protected Buffers initialValue()
+                    {
+                        return new Buffers();
+                    }
+                };
+        }
+        
+        /**
+         * Add a rule at the end.
+         *
+         * @return this rule set, so that calls can be chained
+         */
+        public RuleSet add(Rule rule)
+        {
+            rules.add(rule);
+            
+            return this;
+        }
+        
+        /**
+         * Compile and add a rule at the end.
+         *
+         * @param name short description of the correction
+         * @param regex the regular expression to correct
+         * @param replacement what to write instead
+         * @return this rule set, so that calls can be chained
+         */
+        public RuleSet add(String name, String regex, String replacement)
+        {
+            return add(new Rule(name, Pattern.compile(regex), replacement));
+        }
+        
+        public int size()
+        {
+            return rules.size();
+        }
+        
+        public Rule get(int index)
+        {
+            return rules.get(index);
+        }
+        
+        public Iterator<Rule> iterator()
+        {
+            return rules.iterator();
+        }
+        
+        /**
+         * Apply all rules to a text.
+         *
+         * @param text the text to correct
+         * @param counts if not <code>null</code>, gets the number of
+         *        corrections made by each rule in this text
+         * @return the corrected text
+         */
+        public String apply(CharSequence text, int[] counts)
+        {
+            Buffers buffers = this.buffers.get();
+            if (buffers.matchers.length != rules.size()) {
+                this.buffers.remove();
+                buffers = this.buffers.get();
+            }
+            
+            CharSequence input = text;
+            try {
+                for (int i = 0; i < buffers.matchers.length; ++i) {
+                    Rule rule = rules.get(i);
+                    buffers.output.setLength(0);
+                    int count = rule.apply(buffers.matchers[i].reset(input), input, buffers.output);
+                    if (counts != null) counts[i] = count;
+                    if (0 == count) continue;
+                    rule.corrections.addAndGet(count);
+                    buffers.swap();
+                    input = buffers.input;
+                }
+                
+                return input.toString();
+            }
+            finally {
+                // Do not keep the document text alive through the matchers.
+                for (Matcher matcher : buffers.matchers) matcher.reset("");
+                buffers.trim();
+            }
+        }
+        
+        /**
+         * @return the corrections made by each rule, one per line
+         */
+        public String toString()
+        {
+            StringBuilder text = new StringBuilder();
+            for (Rule rule : rules) text.append(rule).append("\n");
+            
+            return text.toString();
+        }
+    }
     
 	/** Returns the Levenshtein Distance of two strings. Copied from <code>http://www.merriampark.com/ldjava.htm</code>.
 	 * @param string1
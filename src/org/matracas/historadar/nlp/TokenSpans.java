@@ -0,0 +1,192 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar.nlp;
+
+import org.matracas.historadar.Document;
+
+/**
+ * Tokens of a text together with their exact positions in it.
+ *
+ * Tokenizers that return only the token strings force the caller to
+ * look for them again in the text, which is slow and goes wrong with
+ * the irregular spacing and punctuation of OCR output.
+ * This keeps the begin and end offsets of each token in the original
+ * text, grouped in sentences, so that any range of tokens maps to a
+ * {@link Document.Segment} in constant time.
+ */
+public class TokenSpans
+{
+    protected String text;
+    protected int tokenCount;
+    protected int[] begins;
+    protected int[] ends;
+    protected int sentenceCount;
+    protected int[] sentenceStarts;
+    
+    /**
+     * @param text the text where the tokens are
+     */
+    public TokenSpans(String text)
+    {
+        this.text = text;
+        tokenCount     = 0;
+        begins         = new int[16];
+        ends           = new int[begins.length];
+        sentenceCount  = 0;
+        sentenceStarts = new int[16];
+    }
+    
+    /**
+     * Add the next token.
+     *
+     * @param begin offset of the first character in the text
+     * @param end offset after the last character in the text
+     * @throws IllegalArgumentException if the token is outside the text,
+     *         is empty, or starts before the end of the previous one
+     */
+    public void addToken(int begin, int end)
+    {
+        int previousEnd = (tokenCount > 0) ? ends[tokenCount - 1] : 0;
+        if (begin < previousEnd || end <= begin || end > text.length()) {
+            throw new IllegalArgumentException("Token [" + begin + ", " + end + "] out of order or outside the text");
+        }
+        if (tokenCount == begins.length) {
+            int[] newBegins = new int[tokenCount * 2];
+            int[] newEnds   = new int[tokenCount * 2];
+            System.arraycopy(begins, 0, newBegins, 0, tokenCount);
+            System.arraycopy(ends,   0, newEnds,   0, tokenCount);
+            begins = newBegins;
+            ends   = newEnds;
+        }
+        begins[tokenCount] = begin;
+        ends[tokenCount]   = end;
+        ++tokenCount;
+    }
+    
+    /**
+     * Finish the current sentence, which contains the tokens added
+     * since the previous call. Nothing is done if there are none.
+     */
+    public void endSentence()
+    {
+        int start = (sentenceCount > 0) ? sentenceStarts[sentenceCount] : 0;
+        if (tokenCount == start) return;
+        if (sentenceCount + 2 > sentenceStarts.length) {
+            int[] newStarts = new int[sentenceStarts.length * 2];
+            System.arraycopy(sentenceStarts, 0, newStarts, 0, sentenceCount + 1);
+            sentenceStarts = newStarts;
+        }
+        sentenceStarts[sentenceCount] = start;
+        ++sentenceCount;
+        sentenceStarts[sentenceCount] = tokenCount;
+    }
+    
+    public String getText()
+    {
+        return text;
+    }
+    
+    public int getTokenCount()
+    {
+        return tokenCount;
+    }
+    
+    public int getSentenceCount()
+    {
+        return sentenceCount;
+    }
+    
+    public int getBegin(int token)
+    {
+        checkToken(token);
+        return begins[token];
+    }
+    
+    public int getEnd(int token)
+    {
+        checkToken(token);
+        return ends[token];
+    }
+    
+    public String getToken(int token)
+    {
+        checkToken(token);
+        return text.substring(begins[token], ends[token]);
+    }
+    
+    /**
+     * Get the index of the first token of a sentence.
+     */
+    public int getFirstToken(int sentence)
+    {
+        checkSentence(sentence);
+        return sentenceStarts[sentence];
+    }
+    
+    /**
+     * Get the index after the last token of a sentence.
+     */
+    public int getEndToken(int sentence)
+    {
+        checkSentence(sentence);
+        return sentenceStarts[sentence + 1];
+    }
+    
+    /**
+     * Get the token strings of a sentence, as tokenizers return them.
+     */
+    public String[] getSentenceTokens(int sentence)
+    {
+        int first = getFirstToken(sentence);
+        String[] tokens = new String[getEndToken(sentence) - first];
+        for (int i = 0; i < tokens.length; ++i) {
+            tokens[i] = text.substring(begins[first + i], ends[first + i]);
+        }
+        
+        return tokens;
+    }
+    
+    /**
+     * Add a segment that covers a range of tokens.
+     *
+     * @param segments where to add the segment
+     * @param firstToken index of the first token in the segment
+     * @param endToken index after the last token in the segment
+     * @param type the "pattern-name" of the segment
+     */
+    public void addSegment(Document.SegmentList segments, int firstToken, int endToken, String type)
+    {
+        if (endToken <= firstToken) throw new IllegalArgumentException("Empty token range [" + firstToken + ", " + endToken + "]");
+        segments.add(getBegin(firstToken), getEnd(endToken - 1), type);
+    }
+    
+    protected void checkToken(int token)
+    {
+        if (token < 0 || token >= tokenCount) throw new IndexOutOfBoundsException("Token: " + token + ", Tokens: " + tokenCount);
+    }
+    
+    protected void checkSentence(int sentence)
+    {
+        if (sentence < 0 || sentence >= sentenceCount) throw new IndexOutOfBoundsException("Sentence: " + sentence + ", Sentences: " + sentenceCount);
+    }
+}
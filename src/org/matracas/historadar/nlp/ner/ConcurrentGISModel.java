@@ -0,0 +1,131 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar.nlp.ner;
+
+import opennlp.maxent.Context;
+import opennlp.maxent.GISModel;
+import opennlp.maxent.MaxentModel;
+import opennlp.maxent.TObjectIndexHashMap;
+
+/**
+ * Thread-safe view of a {@link GISModel}.
+ *
+ * <code>GISModel.eval()</code> counts the active features in an array
+ * that belongs to the model, so two threads can not use the same model
+ * at once. This class does the same computation with the parameters
+ * of the model, which are only read, and a new array for each call,
+ * so that one copy of the parameters serves any number of threads.
+ */
+public class ConcurrentGISModel implements MaxentModel
+{
+    protected GISModel model;
+    protected Context[] params;
+    protected TObjectIndexHashMap pmap;
+    protected int numOutcomes;
+    protected double correctionConstant;
+    protected double correctionParam;
+    protected double iprob;
+    protected double fval;
+    
+    public ConcurrentGISModel(GISModel model)
+    {
+        this.model = model;
+        Object[] data = model.getDataStructures();
+        params             = (Context[]) data[0];
+        pmap               = (TObjectIndexHashMap) data[1];
+        correctionConstant = ((Number) data[3]).doubleValue();
+        correctionParam    = ((Number) data[4]).doubleValue();
+        numOutcomes        = model.getNumOutcomes();
+        iprob = Math.log(1.0 / numOutcomes);
+        fval  = 1.0 / correctionConstant;
+    }
+    
+    public double[] eval(String[] context)
+    {
+        return eval(context, new double[numOutcomes]);
+    }
+    
+    public double[] eval(String[] context, double[] outsums)
+    {
+        int[] numfeats = new int[numOutcomes];
+        for (int oid = 0; oid < numOutcomes; ++oid) outsums[oid] = iprob;
+        for (int i = 0; i < context.length; ++i) {
+            int contextIndex = pmap.get(context[i]);
+            if (contextIndex < 0) continue;
+            Context predParams = params[contextIndex];
+            int[] activeOutcomes = predParams.getOutcomes();
+            double[] activeParameters = predParams.getParameters();
+            for (int j = 0; j < activeOutcomes.length; ++j) {
+                int oid = activeOutcomes[j];
+                numfeats[oid]++;
+                outsums[oid] += activeParameters[j];
+            }
+        }
+        
+        double normal = 0.0;
+        for (int oid = 0; oid < numOutcomes; ++oid) {
+            outsums[oid] = Math.exp(outsums[oid] * fval
+                                    + (1.0 - numfeats[oid] / correctionConstant) * correctionParam);
+            normal += outsums[oid];
+        }
+        for (int oid = 0; oid < numOutcomes; ++oid) outsums[oid] /= normal;
+        
+        return outsums;
+    }
+    
+    public String getBestOutcome(double[] outcomes)
+    {
+        return model.getBestOutcome(outcomes);
+    }
+    
+    /**
+     * The model formats the numbers with a shared formatter,
+     * so this is serialized.
+     */
+    public String getAllOutcomes(double[] outcomes)
+    {
+        synchronized (model) {
+            return model.getAllOutcomes(outcomes);
+        }
+    }
+    
+    public String getOutcome(int index)
+    {
+        return model.getOutcome(index);
+    }
+    
+    public int getIndex(String outcome)
+    {
+        return model.getIndex(outcome);
+    }
+    
+    public Object[] getDataStructures()
+    {
+        return model.getDataStructures();
+    }
+    
+    public int getNumOutcomes()
+    {
+        return numOutcomes;
+    }
+}
@@ -0,0 +1,443 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar.nlp.ner;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.matracas.historadar.Document;
+import org.matracas.historadar.nlp.NER;
+
+/**
+ * Named entities found by several taggers together.
+ *
+ * The taggers run at the same time on each document, so a slow one
+ * does not add its time to that of the others.
+ * Their results are merged in one sweep over the sorted segment lists,
+ * where the segments with the same position and type count as votes
+ * of the taggers that produced them. For each entity type a rule
+ * decides which segments are kept:
+ * <ul>
+ * <li>{@link Rule#UNION}: all of them.</li>
+ * <li>{@link Rule#VOTE}: those with at least the minimum number of votes.</li>
+ * <li>{@link Rule#PRECEDENCE}: among overlapping segments,
+ *     those of the first tagger in the list that has any.</li>
+ * </ul>
+ * Entity types can be renamed before merging, for instance to count
+ * a "city" from one tagger and a "location" from another as the same.
+ * <br/>
+ * Agreement statistics are accumulated over all the documents.
+ */
+public class Ensemble extends NER
+{
+    public enum Rule { UNION, VOTE, PRECEDENCE }
+    
+    protected NER[] taggers;
+    protected Rule defaultRule;
+    protected Map<String, Rule> rules;
+    protected Map<String, String> aliases;
+    protected int minimumVotes;
+    
+    /**
+     * Threads for the taggers after the first one, shared by all the
+     * ensembles so that replacing an ensemble leaves no threads behind.
+     * Idle threads end after a minute.
+     */
+    protected static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "ensemble tagger");
+                thread.setDaemon(true);
+                
+                return thread;
+            }
+        });
+    
+    /** Per type: proposed, unanimous, kept. */
+    protected Map<String, long[]> statistics;
+    protected long[] found;
+    
+    /**
+     * @param collection the collection to be tagged
+     * @param taggers the taggers, in order of precedence
+     */
+    public Ensemble(Document.Collection collection, NER... taggers)
+    {
+        if (taggers.length < 1 || taggers.length > 64) {
+            throw new IllegalArgumentException("An ensemble needs between 1 and 64 taggers");
+        }
+        this.taggers = taggers.clone();
+        defaultRule  = Rule.UNION;
+        rules        = new HashMap<String, Rule>();
+        aliases      = new HashMap<String, String>();
+        minimumVotes = taggers.length / 2 + 1;
+        statistics   = new TreeMap<String, long[]>();
+        found        = new long[taggers.length];
+    }
+    
+    /**
+     * Create the ensemble offered in the user interface:
+     * Stanford NER, OpenNLP and the gazetteer, in that order of precedence,
+     * with the gazetteer's cities and countries counted as locations.
+     */
+    public static Ensemble createDefault(Document.Collection collection)
+    {
+        return new Ensemble(collection,
+                            new StanfordNER(collection),
+                            new OpenNlpNER(collection),
+                            new Gazetteer(collection))
+            .setDefaultRule(Rule.PRECEDENCE)
+            .setAlias("city", "location")
+            .setAlias("country", "location");
+    }
+    
+    /**
+     * Set the rule for the types without a specific one.
+     * The initial default is {@link Rule#UNION}.
+     */
+    public Ensemble setDefaultRule(Rule rule)
+    {
+        defaultRule = rule;
+        return this;
+    }
+    
+    /**
+     * Set the rule for one entity type, after renaming.
+     */
+    public Ensemble setRule(String type, Rule rule)
+    {
+        rules.put(type, rule);
+        return this;
+    }
+    
+    /**
+     * Set the votes needed by the {@link Rule#VOTE} rule.
+     * The initial value is a majority of the taggers.
+     */
+    public Ensemble setMinimumVotes(int votes)
+    {
+        minimumVotes = votes;
+        return this;
+    }
+    
+    /**
+     * Rename an entity type before merging.
+     *
+     * @param type the type as produced by some tagger
+     * @param as the type used for merging and in the results
+     */
+    public Ensemble setAlias(String type, String as)
+    {
+        aliases.put(type, as);
+        return this;
+    }
+    
+    protected Rule getRule(String type)
+    {
+        Rule rule = rules.get(type);
+        return (rule != null) ? rule : defaultRule;
+    }
+    
+    /**
+     * Get the entities from a given document,
+     * based on the linguistic analysis of the document collection.
+     *
+     * @param document the document where we look for entities
+     */
+    public Document.SegmentList getEntities(final Document document)
+    {
+        Document.SegmentList[] lists = new Document.SegmentList[taggers.length];
+        Vector<Future<Document.SegmentList> > futures = new Vector<Future<Document.SegmentList> >();
+        for (int t = 1; t < taggers.length; ++t) {
+            final NER tagger = taggers[t];
+            futures.add(executor.submit(new Callable<Document.SegmentList>() {
+                    public Document.SegmentList call()
+                    {
+                        return tag(tagger, document);
+                    }
+                }));
+        }
+        lists[0] = tag(taggers[0], document);
+        try {
+            for (int t = 1; t < taggers.length; ++t) lists[t] = futures.get(t - 1).get();
+        }
+        catch (InterruptedException e) {
+            for (Future<Document.SegmentList> future : futures) future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new Document.SegmentList();
+        }
+        catch (java.util.concurrent.ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        
+        return merge(lists);
+    }
+    
+    protected static Document.SegmentList tag(NER tagger, Document document)
+    {
+        if (tagger.isThreadSafe()) return tagger.getEntities(document);
+        synchronized (tagger) {
+            return tagger.getEntities(document);
+        }
+    }
+    
+    /**
+     * A merged segment that waits in the output until the
+     * {@link Rule#PRECEDENCE} rule decides on it and on those before it.
+     */
+    protected static class Pending
+    {
+        protected int begin, end;
+        protected String type;
+        protected long votes;
+        protected boolean decided = false;
+        protected boolean kept = false;
+        
+        protected Pending(int begin, int end, String type, long votes)
+        {
+            this.begin = begin;
+            this.end   = end;
+            this.type  = type;
+            this.votes = votes;
+        }
+    }
+    
+    /**
+     * Segments of one type that overlap, waiting for the
+     * {@link Rule#PRECEDENCE} rule to choose among them.
+     */
+    protected static class Cluster
+    {
+        protected int end = -1;
+        protected long taggers = 0;
+        protected Vector<Pending> spans = new Vector<Pending>();
+    }
+    
+    /**
+     * Merge the results of the taggers, each of them sorted.
+     * The segments come out in the order they are read, which is
+     * already the sorted order, so the result needs no sorting.
+     */
+    protected Document.SegmentList merge(final Document.SegmentList[] lists)
+    {
+        Document.SegmentList segments = new Document.SegmentList();
+        Map<String, long[]> counts = new HashMap<String, long[]>();
+        Map<String, Cluster> clusters = new HashMap<String, Cluster>();
+        LinkedList<Pending> pending = new LinkedList<Pending>();
+        long[] segmentsFound = new long[lists.length];
+        
+        final int[] heads = new int[lists.length];
+        java.util.PriorityQueue<Integer> queue = new java.util.PriorityQueue<Integer>(lists.length, new java.util.Comparator<Integer>() {
+                public int compare(Integer a, Integer b)
+                {
+                    int beginA = lists[a].getBegin(heads[a]), beginB = lists[b].getBegin(heads[b]);
+                    if (beginA != beginB) return (beginA < beginB) ? -1 : 1;
+                    int endA = lists[a].getEnd(heads[a]), endB = lists[b].getEnd(heads[b]);
+                    if (endA != endB) return (endA > endB) ? -1 : 1;
+                    
+                    return a.compareTo(b);
+                }
+            });
+        for (int t = 0; t < lists.length; ++t) {
+            if (lists[t].size() > 0) queue.add(t);
+        }
+        
+        Map<String, Long> group = new LinkedHashMap<String, Long>();
+        while (! queue.isEmpty()) {
+            // Collect the votes for all the segments at the same position.
+            int t = queue.peek();
+            int begin = lists[t].getBegin(heads[t]), end = lists[t].getEnd(heads[t]);
+            // No segment from here on overlaps the clusters that end before it.
+            for (Iterator<Map.Entry<String, Cluster> > i = clusters.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<String, Cluster> entry = i.next();
+                if (begin >= entry.getValue().end) {
+                    counts.get(entry.getKey())[2] += flush(entry.getValue());
+                    i.remove();
+                }
+            }
+            emit(pending, segments);
+            group.clear();
+            while (! queue.isEmpty()) {
+                t = queue.peek();
+                if (lists[t].getBegin(heads[t]) != begin || lists[t].getEnd(heads[t]) != end) break;
+                queue.poll();
+                String type = lists[t].getType(heads[t]);
+                if (null == type) type = lists[t].get(heads[t]).get(Document.Segment.PATTERN_NAME);
+                String alias = aliases.get(type);
+                if (alias != null) type = alias;
+                Long votes = group.get(type);
+                group.put(type, ((null == votes) ? 0L : votes.longValue()) | (1L << t));
+                ++segmentsFound[t];
+                if (++heads[t] < lists[t].size()) queue.add(t);
+            }
+            
+            for (Map.Entry<String, Long> entry : group.entrySet()) {
+                String type = entry.getKey();
+                long votes = entry.getValue().longValue();
+                long[] count = counts.get(type);
+                if (null == count) counts.put(type, count = new long[3]);
+                ++count[0];
+                if (Long.bitCount(votes) == taggers.length) ++count[1];
+                
+                Rule rule = getRule(type);
+                if (Rule.PRECEDENCE == rule) {
+                    Cluster cluster = clusters.get(type);
+                    if (null == cluster) clusters.put(type, cluster = new Cluster());
+                    Pending segment = new Pending(begin, end, type, votes);
+                    cluster.spans.add(segment);
+                    cluster.taggers |= votes;
+                    cluster.end = Math.max(cluster.end, end);
+                    pending.add(segment);
+                }
+                else if (Rule.UNION == rule || Long.bitCount(votes) >= minimumVotes) {
+                    ++count[2];
+                    if (pending.isEmpty()) {
+                        segments.add(begin, end, type);
+                    }
+                    else {
+                        Pending segment = new Pending(begin, end, type, votes);
+                        segment.decided = true;
+                        segment.kept    = true;
+                        pending.add(segment);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Cluster> entry : clusters.entrySet()) {
+            counts.get(entry.getKey())[2] += flush(entry.getValue());
+        }
+        emit(pending, segments);
+        
+        synchronized (statistics) {
+            for (int t = 0; t < found.length; ++t) found[t] += segmentsFound[t];
+            for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+                long[] total = statistics.get(entry.getKey());
+                if (null == total) statistics.put(entry.getKey(), total = new long[3]);
+                for (int i = 0; i < total.length; ++i) total[i] += entry.getValue()[i];
+            }
+        }
+        
+        return segments;
+    }
+    
+    /**
+     * Keep the segments of the first tagger present in the cluster,
+     * and drop the others.
+     *
+     * @return how many were kept
+     */
+    protected static int flush(Cluster cluster)
+    {
+        long first = Long.lowestOneBit(cluster.taggers);
+        int kept = 0;
+        for (Pending span : cluster.spans) {
+            span.decided = true;
+            span.kept    = (span.votes & first) != 0;
+            if (span.kept) ++kept;
+        }
+        
+        return kept;
+    }
+    
+    /**
+     * Move the decided segments at the start of the pending ones to the result.
+     */
+    protected static void emit(LinkedList<Pending> pending, Document.SegmentList segments)
+    {
+        while (! pending.isEmpty() && pending.getFirst().decided) {
+            Pending segment = pending.removeFirst();
+            if (segment.kept) segments.add(segment.begin, segment.end, segment.type);
+        }
+    }
+    
+    /**
+     * Describe the agreement between the taggers so far:
+     * for each entity type, how many different segments were proposed,
+     * how many of them by all the taggers, and how many were kept.
+     */
+    public String getStatistics()
+    {
+        StringBuilder text = new StringBuilder();
+        synchronized (statistics) {
+            for (int t = 0; t < taggers.length; ++t) {
+                text.append(taggers[t].getClass().getSimpleName()).append(": ")
+                    .append(found[t]).append(" segments\n");
+            }
+            for (Map.Entry<String, long[]> entry : statistics.entrySet()) {
+                long[] count = entry.getValue();
+                text.append(entry.getKey()).append(" (").append(getRule(entry.getKey()).toString().toLowerCase()).append("): ")
+                    .append(count[0]).append(" proposed, ")
+                    .append(count[1]).append(" unanimous (")
+                    .append(count[0] > 0 ? (100 * count[1] / count[0]) : 0).append("%), ")
+                    .append(count[2]).append(" kept\n");
+            }
+        }
+        
+        return text.toString();
+    }
+    
+    public void resetStatistics()
+    {
+        synchronized (statistics) {
+            statistics.clear();
+            java.util.Arrays.fill(found, 0);
+        }
+    }
+    
+    public String getConfiguration()
+    {
+        StringBuilder configuration = new StringBuilder();
+        for (NER tagger : taggers) {
+            configuration.append(tagger.getClass().getName()).append('\n')
+                .append(tagger.getConfiguration()).append('\n');
+        }
+        configuration.append("default=").append(defaultRule).append('\n');
+        configuration.append("votes=").append(minimumVotes).append('\n');
+        for (Map.Entry<String, Rule> rule : new TreeMap<String, Rule>(rules).entrySet()) {
+            configuration.append("rule:").append(rule.getKey()).append('=').append(rule.getValue()).append('\n');
+        }
+        for (Map.Entry<String, String> alias : new TreeMap<String, String>(aliases).entrySet()) {
+            configuration.append("alias:").append(alias.getKey()).append('=').append(alias.getValue()).append('\n');
+        }
+        
+        return configuration.toString();
+    }
+    
+    /**
+     * The taggers that are not thread safe are used by one thread at a time.
+     */
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+    
+}
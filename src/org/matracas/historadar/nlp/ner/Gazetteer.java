@@ -0,0 +1,269 @@
+///////////////////////////////////////////////////////////////////////////
+//
+//   Copyright 2010 Alberto González Palomo
+//   Author: Alberto González Palomo - http://matracas.org/
+//
+//   This file is part of HistoRadar, the History Radar.
+//
+//   HistoRadar is free software; you can redistribute it and/or modify
+//   it under the terms of the GNU General Public License as published by
+//   the Free Software Foundation; either version 3 of the License, or
+//   (at your option) any later version.
+//
+//   HistoRadar is distributed in the hope that it will be useful,
+//   but WITHOUT ANY WARRANTY; without even the implied warranty of
+//   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//   GNU General Public License for more details.
+//
+//   You should have received a copy of the GNU General Public License
+//   along with HistoRadar; if not, see <http://www.gnu.org/licenses/>.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.matracas.historadar.nlp.ner;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.LinkedHashSet;
+import java.util.zip.GZIPInputStream;
+import org.matracas.historadar.Document;
+import org.matracas.historadar.MultiPatternMatcher;
+import org.matracas.historadar.nlp.NER;
+
+/**
+ * Named entities looked up in lists of known names.
+ *
+ * Each list is a UTF-8 text file with one name per line,
+ * where empty lines and lines starting with "#" are ignored.
+ * The name of the file without the "<tt>.txt</tt>" or "<tt>.txt.gz</tt>"
+ * extension is the entity type, which becomes the "pattern-name"
+ * of the segments.
+ * <br/>
+ * All the lists are compiled together into one automaton, so the
+ * time per document depends on the length of the document and not
+ * on the number of names, even for hundreds of thousands of them.
+ * The matching ignores case, and any run of white space in the
+ * document, including line breaks, matches a single space in the names.
+ * When several names of the same type start at the same position,
+ * the longest one is taken.
+ */
+public class Gazetteer extends NER
+{
+    /**
+     * Types of the lists included as resources under "<tt>/lib/gazetteer/</tt>".
+     */
+    public static final String[] TYPES = { "country", "city", "person" };
+    
+    /**
+     * System property that names a directory with lists
+     * to use instead of the included ones.
+     */
+    public static final String DIRECTORY_PROPERTY = "historadar.gazetteer";
+    
+    protected static final String RESOURCES = "/lib/gazetteer/";
+    
+    protected Map<String, Vector<String> > lists;
+    protected String source;
+    protected MultiPatternMatcher matcher;
+    
+    /**
+     * Load the lists from the directory given in the system property
+     * {@link #DIRECTORY_PROPERTY}, or the included ones if it is not set.
+     */
+    public Gazetteer(Document.Collection collection)
+    {
+        lists = new TreeMap<String, Vector<String> >();
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory != null) {
+            loadDirectory(new File(directory));
+        }
+        else {
+            source = RESOURCES;
+            for (String type : TYPES) {
+                InputStream input = getClass().getResourceAsStream(RESOURCES + type + ".txt");
+                if (null == input) {
+                    System.err.println("Error: gazetteer list not found: " + RESOURCES + type + ".txt");
+                    continue;
+                }
+                load(type, input);
+            }
+        }
+        compile();
+    }
+    
+    /**
+     * Load all the lists in a directory.
+     *
+     * @param directory where the "<tt>.txt</tt>" and "<tt>.txt.gz</tt>" files are
+     */
+    public Gazetteer(Document.Collection collection, File directory)
+    {
+        lists = new TreeMap<String, Vector<String> >();
+        loadDirectory(directory);
+        compile();
+    }
+    
+    protected void loadDirectory(File directory)
+    {
+        source = directory.getAbsolutePath();
+        File[] files = directory.listFiles();
+        if (null == files) {
+            System.err.println("Error: can not read gazetteer directory: " + directory);
+            return;
+        }
+        java.util.Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                if (name.endsWith(".txt")) {
+                    load(name.substring(0, name.length() - 4), new FileInputStream(file));
+                }
+                else if (name.endsWith(".txt.gz")) {
+                    load(name.substring(0, name.length() - 7), new GZIPInputStream(new FileInputStream(file)));
+                }
+            }
+            catch (java.io.IOException e) {
+                System.err.println("Error: can not read gazetteer list " + file + ": " + e);
+            }
+        }
+    }
+    
+    /**
+     * Read a list of names, normalize them and add them to the given type.
+     * The stream is closed afterwards.
+     */
+    protected void load(String type, InputStream input)
+    {
+        LinkedHashSet<String> names = new LinkedHashSet<String>();
+        Vector<String> previous = lists.get(type);
+        if (previous != null) names.addAll(previous);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("#")) continue;
+                    String name = normalize(line, null).trim();
+                    if (name.length() > 0) names.add(name);
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (java.io.IOException e) {
+            System.err.println("Error: can not read gazetteer list for " + type + ": " + e);
+        }
+        lists.put(type, new Vector<String>(names));
+    }
+    
+    /**
+     * Build the automaton, with the longest names first in each list
+     * so that they win over their prefixes.
+     */
+    protected void compile()
+    {
+        for (Vector<String> names : lists.values()) {
+            java.util.Collections.sort(names, new java.util.Comparator<String>() {
+                    public int compare(String a, String b)
+                    {
+                        return b.length() - a.length();
+                    }
+                });
+        }
+        matcher = new MultiPatternMatcher(new java.util.HashMap<String, java.util.regex.Pattern>(), lists);
+    }
+    
+    /**
+     * Fold the case and reduce each run of white space to a single space.
+     *
+     * @param text the text to normalize
+     * @param offsets if not <code>null</code>, receives for each character
+     *        of the result its position in the original text.
+     *        It must be at least as long as the text.
+     * @return the normalized text
+     */
+    public static String normalize(CharSequence text, int[] offsets)
+    {
+        int length = text.length();
+        StringBuilder normalized = new StringBuilder(length);
+        boolean space = false;
+        for (int i = 0; i < length; ++i) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                if (space) continue;
+                space = true;
+                c = ' ';
+            }
+            else {
+                space = false;
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            if (offsets != null) offsets[normalized.length()] = i;
+            normalized.append(c);
+        }
+        
+        return normalized.toString();
+    }
+    
+    /**
+     * Get the entities from a given document,
+     * based on the linguistic analysis of the document collection.
+     *
+     * @param document the document where we look for entities
+     */
+    public Document.SegmentList getEntities(Document document)
+    {
+        CharSequence text = document.getText();
+        int[] offsets = new int[text.length()];
+        Document.SegmentList found = matcher.segment(normalize(text, offsets));
+        
+        // The offsets grow with the position, so the order is kept.
+        Document.SegmentList segments = new Document.SegmentList(found.size());
+        for (int i = 0; i < found.size(); ++i) {
+            segments.add(offsets[found.getBegin(i)],
+                         offsets[found.getEnd(i) - 1] + 1,
+                         found.getType(i));
+        }
+        
+        return segments;
+    }
+    
+    /**
+     * Get the entity types, which are the names of the lists.
+     */
+    public java.util.Set<String> getTypes()
+    {
+        return lists.keySet();
+    }
+    
+    public String getConfiguration()
+    {
+        StringBuilder configuration = new StringBuilder(source).append('\n');
+        for (Map.Entry<String, Vector<String> > list : lists.entrySet()) {
+            long hash = 0;
+            for (String name : list.getValue()) hash = 31 * hash + name.hashCode();
+            configuration.append(list.getKey()).append('=')
+                .append(list.getValue().size()).append(':')
+                .append(Long.toHexString(hash)).append('\n');
+        }
+        
+        return configuration.toString();
+    }
+    
+    /**
+     * The automaton is immutable after construction
+     * and each call uses its own buffers.
+     */
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+    
+}
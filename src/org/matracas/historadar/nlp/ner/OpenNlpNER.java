@@ -29,6 +29,8 @@ import java.util.Hashtable;
 import java.util.Vector;
 import org.matracas.historadar.Document;
 import org.matracas.historadar.nlp.NER;
+import org.matracas.historadar.nlp.ModelRegistry;
+import org.matracas.historadar.nlp.TokenSpans;
 
 import java.util.Collections;
 import org.matracas.historadar.Document.Segment;
@@ -36,6 +38,7 @@ import opennlp.tools.namefind.*;
 import opennlp.tools.sentdetect.*;
 import opennlp.tools.tokenize.TokenizerME;
 import opennlp.maxent.GISModel;
+import opennlp.maxent.MaxentModel;
 import opennlp.maxent.io.BinaryGISModelReader;
 import opennlp.tools.util.Span;
 import java.io.*;
@@ -44,47 +47,129 @@ import java.util.zip.GZIPInputStream;
 /**
  * Named entities extracted from a document.
  *
+ * Each sentence is tokenized once, and all the name finders whose models
+ * are available run on the same tokens. The character offsets of the
+ * entities come directly from the positions of the sentences and tokens.
  */
 public class OpenNlpNER extends NER
 {
-    protected TokenizerME tokenizer;
-    protected NameFinderME personFinder;
-    protected NameFinderME locationFinder;
-    protected SentenceDetectorME detector;
+    protected static final String MODEL_DIRECTORY = "/lib/opennlp/models/";
+    protected static final String SENTENCE_MODEL  = MODEL_DIRECTORY + "EnglishSD.bin.gz";
+    protected static final String TOKEN_MODEL     = MODEL_DIRECTORY + "EnglishTok.bin.gz";
     
+    /**
+     * Entity types, each of them found with the model "<tt>type.bin.gz</tt>".
+     */
+    public static final String[] TYPES = {
+        "person", "location", "organization", "date", "money", "time", "percentage"
+    };
+    
+    protected MaxentModel sentenceModel;
+    protected MaxentModel tokenModel;
+    protected Vector<String> types;
+    protected Vector<MaxentModel> nameModels;
+    
+    /**
+     * The tokenizer, sentence detector and name finders keep state
+     * between calls, so each thread gets its own ones.
+     * They are cheap to create since they share the models.
+     */
+    protected static class Tools
+    {
+        protected TokenizerME tokenizer;
+        protected SentenceDetectorME detector;
+        protected NameFinderME[] finders;
+    }
+    
+    protected ThreadLocal<Tools> tools = new ThreadLocal<Tools>() {
+            protected Tools initialValue()
+            {
+                Tools tools = new Tools();
+                tools.detector  = new SentenceDetectorME(sentenceModel);
+                tools.tokenizer = new TokenizerME(tokenModel);
+                tools.finders   = new NameFinderME[nameModels.size()];
+                for (int i = 0; i < tools.finders.length; ++i) {
+                    tools.finders[i] = new NameFinderME(nameModels.get(i));
+                }
+                
+                return tools;
+            }
+        };
+    
+    /**
+     * Reads a model from a gzipped resource.
+     */
+    protected static class ModelLoader implements ModelRegistry.Loader<MaxentModel>
+    {
+        protected String resource;
+        
+        public ModelLoader(String resource)
+        {
+            this.resource = resource;
+        }
+        
+        public MaxentModel load() throws Exception
+        {
+            InputStream input = OpenNlpNER.class.getResourceAsStream(resource);
+            if (null == input) throw new FileNotFoundException(resource);
+            DataInputStream data = new DataInputStream(new GZIPInputStream(input));
+            try {
+                return new ConcurrentGISModel(new BinaryGISModelReader(data).getModel());
+            }
+            finally {
+                data.close();
+            }
+        }
+    }
+    
+    /**
+     * Get a model from the {@link ModelRegistry}, loading it if necessary.
+     */
+    protected static MaxentModel model(String resource) throws Exception
+    {
+        return ModelRegistry.get(resource, new ModelLoader(resource));
+    }
+    
+    protected static String nameModel(String type)
+    {
+        return MODEL_DIRECTORY + type + ".bin.gz";
+    }
+    
+    /**
+     * Start loading the models in the background.
+     */
+    public static void preload()
+    {
+        ModelRegistry.preload(SENTENCE_MODEL, new ModelLoader(SENTENCE_MODEL));
+        ModelRegistry.preload(TOKEN_MODEL, new ModelLoader(TOKEN_MODEL));
+        for (String type : TYPES) ModelRegistry.preload(nameModel(type), new ModelLoader(nameModel(type)));
+    }
+    
+    /**
+     * Get the shared models.
+     * The sentence and token models are required, while the entity
+     * types whose models are missing are left out with a warning.
+     */
     public OpenNlpNER(Document.Collection collection)
     {
-        GISModel m;
+        types      = new Vector<String>();
+        nameModels = new Vector<MaxentModel>();
         try {
-            /*create input streams for the files containing the required models*/
-            DataInputStream personFile, locationFile, sentenceFile, tokenFile;
-            personFile   = new DataInputStream(new GZIPInputStream(getClass().getResourceAsStream("/lib/opennlp/models/person.bin.gz")));
-            locationFile = new DataInputStream(new GZIPInputStream(getClass().getResourceAsStream("/lib/opennlp/models/location.bin.gz")));
-            sentenceFile = new DataInputStream(new GZIPInputStream(getClass().getResourceAsStream("/lib/opennlp/models/EnglishSD.bin.gz")));
-            tokenFile    = new DataInputStream(new GZIPInputStream(getClass().getResourceAsStream("/lib/opennlp/models/EnglishTok.bin.gz")));
-            
-            /*get the models and create with them the objects necessary to process the text*/
-            BinaryGISModelReader reader = new BinaryGISModelReader(personFile);
-            m = reader.getModel();
-            personFinder = new NameFinderME(m);
-            
-            reader = new BinaryGISModelReader(locationFile);
-            m = reader.getModel();
-            locationFinder = new NameFinderME(m);
-            
-            reader = new BinaryGISModelReader(sentenceFile);
-            m = reader.getModel();
-            detector = new SentenceDetectorME(m);
-
-            reader = new BinaryGISModelReader(tokenFile);
-            m = reader.getModel();
-            tokenizer = new TokenizerME(m);
+            sentenceModel = model(SENTENCE_MODEL);
+            tokenModel    = model(TOKEN_MODEL);
         } catch (Exception e) {
-            System.err.println("exception got thrown in NER.getEntities: "+ e);
-            tokenizer = null;
-            personFinder = null;
-            locationFinder = null;
-            detector = null;
+            System.err.println("Error: OpenNlpNER: " + e);
+            tokenModel = null;
+            return;
+        }
+        for (String type : TYPES) {
+            try {
+                nameModels.add(model(nameModel(type)));
+                types.add(type);
+            }
+            catch (Exception e) {
+                System.err.println("Warning: OpenNlpNER: no " + type + " entities: " + e);
+            }
         }
     }
     
@@ -98,103 +183,96 @@ public class OpenNlpNER extends NER
     {
         Document.SegmentList segments = new Document.SegmentList();
         
-        if (null == tokenizer) return segments;
+        if (null == tokenModel || types.isEmpty()) return segments;
         
+        Tools tools = this.tools.get();
         String plainText = document.getPlainText();
         
-        /*split the text into sentences*/
-        String[] sentences = detector.sentDetect(plainText);
+        /*tokenize once, keeping the position of every token in the document*/
+        TokenSpans tokens = tokenize(plainText, tools.detector, tools.tokenizer);
         
-        /*For each sentence, first tokenize it, then get the person names from it.
-          @position: required to keep track of where in the text we are*/
-        int position = 0;
-        for (String sent:sentences) {
-            //tokenize and find names
-            String[] tokens = tokenizer.tokenize(sent);
-            Span[] spans = personFinder.find(tokens);
-            
-            //now create a segment for each name found and add it to the list
-            for (Span s:spans) {
-                Segment segment = createSegment(s,tokens,plainText,position);
-                segment.put("pattern-name", "person");
-                segments.add(segment);
+        /*run all the finders on the same tokens of each sentence*/
+        try {
+            for (int s = 0; s < tokens.getSentenceCount(); ++s) {
+                String[] sentence = tokens.getSentenceTokens(s);
+                int first = tokens.getFirstToken(s);
+                for (int f = 0; f < tools.finders.length; ++f) {
+                    for (Span span : tools.finders[f].find(sentence)) {
+                        tokens.addSegment(segments, first + span.getStart(), first + span.getEnd(), types.get(f));
+                    }
+                }
             }
-            
-            position = position + sent.length();
         }
-        
-        /*Now do the same thing as above again, only for locations. (Yes, we tokenize everything
-          twice. It's not pretty, but at least it works.)*/
-        position = 0;
-        for (String sent:sentences) {
-            //tokenize and find names
-            String[] tokens = tokenizer.tokenize(sent);
-            Span[] spans = locationFinder.find(tokens);
-            
-            //now create a segment for each name found and add it to the list
-            for (Span s:spans) {
-                Segment segment = createSegment(s,tokens,plainText,position);
-                segment.put("pattern-name", "location");
-                segments.add(segment);
-            }
-            
-            position = position + sent.length();
+        finally {
+            /*the finders remember the tags of previous sentences, which must
+              not leak into the next document that this thread tags*/
+            for (NameFinderME finder : tools.finders) finder.clearAdaptiveData();
         }
         
-        //System.out.println("Nr of segments found: "+segments.size());
-        
         /*View needs sorted segment lists, so we sort it before returning it*/
-        Collections.sort(segments);
+        segments.sort();
         
         return segments;
     }
     
-    private Document.Segment createSegment(Span span,String[] tokens,String plainText,int position) {
-        /* get a rough estimation of where the segment should start and end, using the
-         * numbers of letters in the tokens */
-        int start = position;
-        int end = position;
-        for(int i=0;i<span.getStart()-1;i++) {
-            start = start + tokens[i].length()+1;
-        }
-        for(int i=0;i<span.getEnd();i++) {
-            end = end + tokens[i].length()+1;
-        }
-        Document.Segment guessedSegment = new Document.Segment(start, end);
-        
-        try {
-            /*get the NE from the list of tokens*/
-            String NE = "";
-            for (int i=span.getStart();i<span.getEnd();i++) {
-                NE = NE + (tokens[i]);
-            }
-            
-            /*try moving the segment around in the text, until it matches the NE*/
-            for (start=guessedSegment.getBegin()+10;start>guessedSegment.getBegin()-10;start--) {
-                for (end=start;end<start+NE.length()+10;end++) {
-                    
-                    /*get the text in the estimated segment (without whitespaces)*/
-                    String segmentText = plainText.substring(start, end);
-                    int length = segmentText.length(); //remember the length before whitespaces are removed
-                    segmentText = segmentText.replaceAll(" ", "");
-                    
-                    /*compare text from the segment to NE. If they match, find end and return segment*/
-                    if (segmentText.equals(NE)) {
-                        end = start + length;
-                        //                    System.out.println("match: " + segmentText);
-                        return new Document.Segment(start, end);
-                    }
-                }
+    /**
+     * Split a text into sentences and tokens with the tools of this thread.
+     *
+     * @param text the text to tokenize
+     * @return the tokens, or null if the sentence or token model is missing
+     */
+    public TokenSpans tokenize(String text)
+    {
+        if (null == tokenModel) return null;
+        Tools tools = this.tools.get();
+        return tokenize(text, tools.detector, tools.tokenizer);
+    }
+    
+    /**
+     * Split a text into sentences and tokens with OpenNLP,
+     * keeping the position of each token in the text.
+     *
+     * @param text the text to tokenize
+     * @param detector sentence detector
+     * @param tokenizer tokenizer
+     * @return the tokens
+     */
+    public static TokenSpans tokenize(String text, SentenceDetectorME detector, TokenizerME tokenizer)
+    {
+        TokenSpans tokens = new TokenSpans(text);
+        int[] boundaries = detector.sentPosDetect(text);
+        int sentenceBegin = 0;
+        for (int s = 0; s <= boundaries.length; ++s) {
+            int sentenceEnd = (s < boundaries.length) ? boundaries[s] : text.length();
+            if (sentenceEnd <= sentenceBegin) continue;
+            for (Span span : tokenizer.tokenizePos(text.substring(sentenceBegin, sentenceEnd))) {
+                tokens.addToken(sentenceBegin + span.getStart(), sentenceBegin + span.getEnd());
             }
+            tokens.endSentence();
+            sentenceBegin = sentenceEnd;
         }
-        catch (Exception e) {
-            System.err.println("exception: " + e);
-        }
-        /* if we don't get an exact match, just return the guess*/
         
-        //System.out.println("no match: " + NE);
+        return tokens;
+    }
+    
+    /**
+     * Each thread uses its own tools over the shared models.
+     */
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+    
+    public String getConfiguration()
+    {
+        StringBuilder configuration = new StringBuilder();
+        configuration.append(SENTENCE_MODEL).append('\n');
+        configuration.append(TOKEN_MODEL).append('\n');
+        if (types != null) {
+            for (String type : types) configuration.append(nameModel(type)).append('\n');
+        }
         
-        return guessedSegment;
+        return configuration.toString();
     }
     
 }
@@ -78,12 +78,30 @@ public class SimpleRegexp extends NER
      */
     public Document.SegmentList getEntities(Document document)
     {
-        Document.SegmentList segments = new Document.SegmentList();
-        String plainText = document.getPlainText();
+        Document.SegmentList segments;
         
         segments = document.segment(patterns);
         
         return segments;
     }
     
+    public String getConfiguration()
+    {
+        StringBuilder configuration = new StringBuilder();
+        for (String name : new java.util.TreeSet<String>(patterns.keySet())) {
+            java.util.regex.Pattern pattern = patterns.get(name);
+            configuration.append(name).append('=').append(pattern.flags()).append(':').append(pattern.pattern()).append('\n');
+        }
+        
+        return configuration.toString();
+    }
+    
+    /**
+     * The patterns are immutable and each call uses its own matchers.
+     */
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+    
 }
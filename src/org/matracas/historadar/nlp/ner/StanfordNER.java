@@ -27,6 +27,7 @@ package org.matracas.historadar.nlp.ner;
 
 import org.matracas.historadar.Document;
 import org.matracas.historadar.nlp.NER;
+import org.matracas.historadar.nlp.ModelRegistry;
 
 import edu.stanford.nlp.ie.crf.*;
 import edu.stanford.nlp.ie.AbstractSequenceClassifier;
@@ -43,20 +44,220 @@ import java.util.zip.GZIPInputStream;
  */
 public class StanfordNER extends NER
 {
-    protected AbstractSequenceClassifier classifier;
+    protected static final String CLASSIFIER = "/lib/StanfordNER/classifiers/ner-eng-ie.crf-3-all2008.ser.gz";
+    
+    /**
+     * Default maximum length of the text classified at once, in characters.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 20000;
+    
+    /**
+     * Default number of characters shared by consecutive chunks.
+     */
+    public static final int DEFAULT_OVERLAP = 1000;
+    
+    protected int instances;
+    protected java.util.concurrent.BlockingQueue<AbstractSequenceClassifier> pool;
+    protected int chunkSize = DEFAULT_CHUNK_SIZE;
+    protected int overlap = DEFAULT_OVERLAP;
+    protected java.util.concurrent.ExecutorService executor;
+    
+    /**
+     * Reads the classifier from its gzipped resource.
+     */
+    protected static class ClassifierLoader implements ModelRegistry.Loader<AbstractSequenceClassifier>
+    {
+        public AbstractSequenceClassifier load() throws Exception
+        {
+            java.io.InputStream input = StanfordNER.class.getResourceAsStream(CLASSIFIER);
+            if (null == input) throw new java.io.FileNotFoundException(CLASSIFIER);
+            GZIPInputStream data = new GZIPInputStream(input);
+            try {
+                return CRFClassifier.getClassifier(data);
+            }
+            finally {
+                data.close();
+            }
+        }
+    }
+    
+    /**
+     * Start loading the classifier in the background.
+     */
+    public static void preload()
+    {
+        ModelRegistry.preload(CLASSIFIER, new ClassifierLoader());
+    }
+    
+    /**
+     * Name of each classifier instance in the {@link ModelRegistry}.
+     */
+    protected static String instanceName(int instance)
+    {
+        return (0 == instance) ? CLASSIFIER : CLASSIFIER + "#" + instance;
+    }
     
     public StanfordNER(Document.Collection collection)
     {
-        /*load the NE classifier from its file*/
-        String serializedClassifier = "/lib/StanfordNER/classifiers/ner-eng-ie.crf-3-all2008.ser.gz";
+        this(collection, 1);
+    }
+    
+    /**
+     * The classifier keeps state while it works and its weights
+     * are not accessible for sharing, so documents are tagged
+     * with a pool of classifier instances where each one is used
+     * by a single thread at a time.
+     * The first instance is shared with all other taggers,
+     * and each additional one is a full copy of the model,
+     * also shared through the {@link ModelRegistry},
+     * that allows one more thread to run at the same time.
+     *
+     * @param collection the collection to be tagged
+     * @param instances how many documents can be tagged at the same time
+     */
+    public StanfordNER(Document.Collection collection, int instances)
+    {
+        instances = Math.max(1, instances);
+        pool = new java.util.concurrent.ArrayBlockingQueue<AbstractSequenceClassifier>(instances);
+        /*get the shared NE classifiers, loading them from their file the first time*/
         try {
-            classifier = CRFClassifier.getClassifier(new GZIPInputStream(getClass().getResourceAsStream(serializedClassifier)));
+            for (int i = 0; i < instances; ++i) {
+                pool.add(ModelRegistry.get(instanceName(i), new ClassifierLoader()));
+            }
         }
-        catch (java.io.IOException e) {
+        catch (Exception e) {
             System.err.println("Error: StanfordNER: " + e);
         }
-        catch (java.lang.ClassNotFoundException e) {
-            System.err.println("Error: StanfordNER: " + e);
+        this.instances = pool.size();
+    }
+    
+    /**
+     * Set how long documents are split before classifying them.
+     * The classifier builds a lattice over all the text it gets,
+     * so the memory needed depends on the chunk size instead of
+     * the size of the document.
+     * Chunks are cut at page, paragraph or sentence boundaries when
+     * possible, and consecutive chunks overlap so that entities near
+     * a cut are seen whole by one of them.
+     *
+     * @param chunkSize maximum chunk length in characters,
+     *        or 0 to classify whole documents
+     * @param overlap characters shared by consecutive chunks
+     */
+    public void setChunking(int chunkSize, int overlap)
+    {
+        if (chunkSize > 0 && (overlap < 0 || 2 * overlap >= chunkSize)) {
+            throw new IllegalArgumentException("Overlap must be less than half the chunk size");
+        }
+        this.chunkSize = chunkSize;
+        this.overlap   = overlap;
+    }
+    
+    /**
+     * Classify the chunks of each document in parallel.
+     * This only helps if there are several classifier instances.
+     *
+     * @param executor where to run the chunks,
+     *        or <code>null</code> to run them in the calling thread
+     */
+    public void setExecutor(java.util.concurrent.ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+    
+    /**
+     * Split a text into chunks.
+     *
+     * @return the begin and end offsets of each chunk, one after the other
+     */
+    protected int[] chunk(String text)
+    {
+        int length = text.length();
+        if (chunkSize <= 0 || length <= chunkSize) return new int[] { 0, length };
+        
+        int[] chunks = new int[2 * (length / (chunkSize - overlap) + 2)];
+        int count = 0;
+        int begin = 0;
+        while (true) {
+            if (count + 2 > chunks.length) {
+                int[] larger = new int[chunks.length * 2];
+                System.arraycopy(chunks, 0, larger, 0, count);
+                chunks = larger;
+            }
+            if (length - begin <= chunkSize) {
+                chunks[count++] = begin;
+                chunks[count++] = length;
+                break;
+            }
+            int end = breakBefore(text, begin + chunkSize, begin + chunkSize / 2);
+            chunks[count++] = begin;
+            chunks[count++] = end;
+            
+            /*start the next chunk at the beginning of a word inside the overlap*/
+            int next = end - overlap;
+            while (next < end && ! Character.isWhitespace(text.charAt(next - 1))) ++next;
+            begin = (next < end) ? next : end - overlap;
+        }
+        
+        int[] result = new int[count];
+        System.arraycopy(chunks, 0, result, 0, count);
+        
+        return result;
+    }
+    
+    /**
+     * Find the best place to cut a text before a given limit:
+     * after a page break, a blank line, the end of a sentence,
+     * or a space, in that order of preference.
+     *
+     * @param text the text
+     * @param limit the cut must not be after this
+     * @param minimum the cut must not be before this
+     * @return the cut position
+     */
+    protected static int breakBefore(String text, int limit, int minimum)
+    {
+        for (int i = limit; i > minimum; --i) {
+            if ('\f' == text.charAt(i - 1)) return i;
+        }
+        for (int i = limit; i > minimum + 1; --i) {
+            if ('\n' == text.charAt(i - 1) && '\n' == text.charAt(i - 2)) return i;
+        }
+        for (int i = limit; i > minimum + 1; --i) {
+            char c = text.charAt(i - 2);
+            if (('.' == c || '!' == c || '?' == c) && Character.isWhitespace(text.charAt(i - 1))) return i;
+        }
+        for (int i = limit; i > minimum; --i) {
+            if (Character.isWhitespace(text.charAt(i - 1))) return i;
+        }
+        
+        return limit;
+    }
+    
+    /**
+     * Run a classifier from the pool on a text.
+     *
+     * @return the entities found, with offsets in the text,
+     *         or <code>null</code> if interrupted while waiting
+     *         for a classifier
+     */
+    @SuppressWarnings("unchecked")
+    protected List<Triple<String,Integer,Integer>> classify(String text)
+    {
+        AbstractSequenceClassifier classifier;
+        try {
+            classifier = pool.take();
+        }
+        catch (InterruptedException e) {
+            System.err.println("Error: StanfordNER: interrupted while waiting for a classifier");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            return classifier.classifyToCharacterOffsets(text);
+        }
+        finally {
+            pool.add(classifier);
         }
     }
     
@@ -64,30 +265,84 @@ public class StanfordNER extends NER
      * Get the entities from a given document,
      * based on the linguistic analysis of the document collection.
      *
+     * Long documents are classified in chunks, see {@link #setChunking(int, int)}.
+     * Each chunk keeps only the entities that start in its own part
+     * of the text, which ends at the middle of the overlap with the
+     * next chunk, so that entities near a cut are not repeated.
+     *
      * @param document the document where we look for entities
      */
     public Document.SegmentList getEntities(Document document)
     {
         Document.SegmentList segments = new Document.SegmentList();
-        String plainText = document.getPlainText();
+        if (0 == instances) return segments;
         
-        /*run the classifier and store the results in a list*/
-        List<Triple<String,Integer,Integer>> offsets = classifier.classifyToCharacterOffsets(plainText);
+        final String plainText = document.getPlainText();
+        final int[] chunks = chunk(plainText);
+        int count = chunks.length / 2;
         
-        /*convert the triples the classifier returned to Document.Segment and add them to the segment
-          list */  
-        while(!offsets.isEmpty()) {
-            Integer begin = offsets.get(0).second;
-            Integer end = offsets.get(0).third;
-            
-            Document.Segment segment = new Document.Segment(begin.intValue(), end.intValue());
-            segment.put("pattern-name", offsets.get(0).first().toLowerCase());
-            
-            segments.add(segment);
-            offsets.remove(0);
+        /*run the classifier on each chunk*/
+        List<List<Triple<String,Integer,Integer>>> results = new ArrayList<List<Triple<String,Integer,Integer>>>(count);
+        if (executor != null && count > 1) {
+            List<java.util.concurrent.Future<List<Triple<String,Integer,Integer>>>> futures = new ArrayList<java.util.concurrent.Future<List<Triple<String,Integer,Integer>>>>(count);
+            for (int c = 0; c < count; ++c) {
+                final int begin = chunks[2 * c], end = chunks[2 * c + 1];
+                futures.add(executor.submit(new java.util.concurrent.Callable<List<Triple<String,Integer,Integer>>>() {
+                        public List<Triple<String,Integer,Integer>> call()
+                        {
+                            return classify(plainText.substring(begin, end));
+                        }
+                    }));
+            }
+            try {
+                for (java.util.concurrent.Future<List<Triple<String,Integer,Integer>>> future : futures) {
+                    results.add(future.get());
+                }
+            }
+            catch (InterruptedException e) {
+                for (java.util.concurrent.Future<List<Triple<String,Integer,Integer>>> future : futures) future.cancel(true);
+                Thread.currentThread().interrupt();
+                return segments;
+            }
+            catch (java.util.concurrent.ExecutionException e) {
+                System.err.println("Error: StanfordNER: " + e.getCause());
+                return segments;
+            }
+        }
+        else {
+            for (int c = 0; c < count; ++c) {
+                results.add(classify(plainText.substring(chunks[2 * c], chunks[2 * c + 1])));
+            }
+        }
+        
+        /*rebase the offsets and convert the triples to segments*/
+        for (int c = 0; c < count; ++c) {
+            List<Triple<String,Integer,Integer>> offsets = results.get(c);
+            if (null == offsets) return new Document.SegmentList();
+            int begin = chunks[2 * c];
+            int ownBegin = (0 == c)         ? 0                 : (chunks[2 * c - 1] + begin) / 2;
+            int ownEnd   = (count - 1 == c) ? plainText.length() : (chunks[2 * c + 1] + chunks[2 * c + 2]) / 2;
+            for (Triple<String,Integer,Integer> entity : offsets) {
+                int entityBegin = begin + entity.second().intValue();
+                if (entityBegin < ownBegin || entityBegin >= ownEnd) continue;
+                segments.add(entityBegin, begin + entity.third().intValue(), entity.first().toLowerCase());
+            }
         }
         
         return segments;
     }
     
+    public String getConfiguration()
+    {
+        return CLASSIFIER + "\nchunk=" + chunkSize + "," + overlap;
+    }
+    
+    /**
+     * Each classifier instance is used by one thread at a time.
+     */
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+    
 }
@@ -168,7 +168,7 @@ public class HeatMap extends JPanel
     
     public static class ActionEvent extends java.awt.event.ActionEvent
     {
-        public enum Action { CLICK, MOVE, LEAVE };
+        public enum Action { CLICK, DOUBLE_CLICK, MOVE, LEAVE };
         
         protected int row, column;
         protected Action action;
@@ -224,6 +224,10 @@ public class HeatMap extends JPanel
         ActionEvent event = new ActionEvent(this, row, column, actionCommand,
                                             ActionEvent.Action.CLICK);
         dispatch(event);
+        if (2 == e.getClickCount()) {
+            dispatch(new ActionEvent(this, row, column, actionCommand,
+                                     ActionEvent.Action.DOUBLE_CLICK));
+        }
     }
     
     public void mouseMoved(MouseEvent e)
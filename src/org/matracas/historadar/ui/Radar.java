@@ -31,7 +31,10 @@ import java.awt.Dimension;
 import java.awt.geom.Dimension2D;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
+import java.awt.event.AdjustmentListener;
+import java.awt.event.AdjustmentEvent;
 import java.util.Vector;
+import org.matracas.historadar.Document;
 
 public class Radar extends JPanel
     implements ActionListener
@@ -43,6 +46,7 @@ public class Radar extends JPanel
     protected HeatMap heatMap;
     protected TimeScale timeScale;
     protected JLabel entityLabel;
+    protected JScrollPane screenScrollPane;
     
     public Radar()
     {
@@ -63,10 +67,19 @@ public class Radar extends JPanel
         
         timeScale = new TimeScale();
         
-        JScrollPane screenScrollPane;
         screenScrollPane = new JScrollPane(screen, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         screenScrollPane.getVerticalScrollBar()  .setUnitIncrement(4);
         screenScrollPane.getHorizontalScrollBar().setUnitIncrement(4);
+        screenScrollPane.getHorizontalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+                public void adjustmentValueChanged(AdjustmentEvent e)
+                {
+                    if (e.getValueIsAdjusting()) return;
+                    dispatch(new ActionEvent(Radar.this, -1, -1,
+                                             actionCommand,
+                                             ActionEvent.Action.SCREEN_SCROLL
+                                             ));
+                }
+            });
         // This way the time scale is drawn incorrectly, probably because
         // we would have to keep track of scrolling ourselves:
         //screenScrollPane.setColumnHeaderView(timeScale);
@@ -102,9 +115,27 @@ public class Radar extends JPanel
     public void setDataSize(int width, int height)
     {
         heatMap.setDataSize(width, height);
+        timeScale.setColumnCount(width);
         validate();
     }
     
+    /**
+     * Get the range of columns currently visible in the screen.
+     *
+     * @return the first visible column and the one after the last,
+     *         equal if none are visible
+     */
+    public int[] getVisibleColumns()
+    {
+        java.awt.Rectangle visible = heatMap.getVisibleRect();
+        if (visible.width <= 0 || heatMap.getWidth() <= 0) return new int[] { 0, 0 };
+        
+        int first = heatMap.getColumn(visible.x);
+        int end   = heatMap.getColumn(visible.x + visible.width - 1) + 1;
+        
+        return new int[] { Math.max(0, first), Math.min(heatMap.dataWidth, end) };
+    }
+    
     public void setRow(String date, int row, double[] values)
     {
         timeScale.set(row, date);
@@ -117,6 +148,20 @@ public class Radar extends JPanel
         heatMap.setColumn(column, values);
     }
     
+    /**
+     * Set the values of a column and its place in the time scale.
+     *
+     * @param date minutes since the epoch, as given by
+     *        {@link Document#getDate()}
+     * @param column index of the column
+     * @param values intensity for each row
+     */
+    public void setColumn(long date, int column, double[] values)
+    {
+        timeScale.set(column, Document.dayOf(date));
+        heatMap.setColumn(column, values);
+    }
+    
     public void setLabel(String text)
     {
         entityLabel.setText(text);
@@ -134,7 +179,7 @@ public class Radar extends JPanel
     
     public static class ActionEvent extends java.awt.event.ActionEvent
     {
-        public enum Action { SCREEN_CLICK, SCREEN_MOUSEOVER, SCREEN_LEAVE };
+        public enum Action { SCREEN_CLICK, SCREEN_DOUBLE_CLICK, SCREEN_MOUSEOVER, SCREEN_LEAVE, SCREEN_SCROLL };
         
         protected int row, column;
         protected Action action;
@@ -173,6 +218,13 @@ public class Radar extends JPanel
                                          ActionEvent.Action.SCREEN_CLICK
                                          ));
                 break;
+            case DOUBLE_CLICK:
+                dispatch(new ActionEvent(this,
+                                         event.getRow(), event.getColumn(),
+                                         actionCommand,
+                                         ActionEvent.Action.SCREEN_DOUBLE_CLICK
+                                         ));
+                break;
             case MOVE:
                 dispatch(new ActionEvent(this,
                                          event.getRow(), event.getColumn(),
@@ -33,18 +33,20 @@ import javax.swing.event.MouseInputListener;
 import java.awt.event.MouseEvent;
 import java.util.Date;
 import java.util.Vector;
+import org.matracas.historadar.Document;
 
 public class TimeScale extends JLabel
     implements MouseInputListener
 {
     protected Vector<ActionListener> actionListeners;
     protected String actionCommand;
-    protected Vector<Date> dates;
-    protected Date begin, end;
+    /** Days since 1970-01-01 of each column, see {@link Document#epochDay(int, int, int)}. */
+    protected long[] days;
+    protected int dayCount;
+    protected long begin, end;
     protected int fontSize;
     protected String fontFamily;
     protected String dateFormatPattern;
-    protected java.text.SimpleDateFormat dateFormat;
     protected int dateTextWidth, dateTextHeight;
     
     public TimeScale()
@@ -54,13 +56,11 @@ public class TimeScale extends JLabel
         addMouseListener(this);
         addMouseMotionListener(this);
         
-        dates = new Vector<Date>();
-        begin = null;
-        end   = null;
+        days = new long[16];
+        dayCount = 0;
+        begin = Document.NO_DATE;
+        end   = Document.NO_DATE;
         dateFormatPattern = "yyyy-MM-dd";
-        dateFormat = (java.text.SimpleDateFormat) java.text.SimpleDateFormat.getDateInstance();
-        dateFormat.applyPattern(dateFormatPattern);
-        dateFormat.setLenient(true);
         
         Font font = javax.swing.UIManager.getFont("Label.font");
         fontSize = font.getSize();
@@ -73,7 +73,7 @@ public class TimeScale extends JLabel
     {
         dateTextWidth  = dateFormatPattern.length() * fontSize * 3 / 5;
         dateTextHeight = fontSize;
-        int width  = dateTextWidth * dates.size();
+        int width  = dateTextWidth * dayCount;
         int height = dateTextHeight * 2;
         if (width  < fontSize) width  = fontSize;
         if (height < fontSize) height = fontSize;
@@ -100,62 +100,111 @@ public class TimeScale extends JLabel
         y = fontSize + fontSize/2;
         int step = dateTextWidth + fontSize;
         lastLabelX = -step-1;
-        int index = 0;
-        for (Date date : dates) {
-            x = index * getWidth() / dates.size();
+        for (int index = 0; index < dayCount; ++index) {
+            x = index * getWidth() / dayCount;
             g2.setColor(Color.GRAY);
             if (x - lastLabelX > step) {
                 g2.drawLine(x0 + x, y0,
                             x0 + x, y0 + getHeight());
                 g2.setColor(Color.BLACK);
-                g2.drawString(dateFormat.format(date), x0 + x + 2, y0 + y);
+                g2.drawString(Document.formatDay(days[index]), x0 + x + 2, y0 + y);
                 lastLabelX = x;
             }
             else {
                 g2.drawLine(x0 + x, y0 + getHeight()-fontSize/4,
                             x0 + x, y0 + getHeight());
             }
-            ++index;
         }
     }
     
     public void add(Date date)
     {
-        if (null == begin) begin = date;
-        if (null == end)   end   = date;
-        dates.add(date);
-        adjustSize();
+        add(dayOf(date));
     }
     
     public void add(String date)
     {
-        add(parseDate(date));
+        add(dayOf(date));
+    }
+    
+    /**
+     * Add a column at the end.
+     *
+     * @param day days since 1970-01-01, or {@link Document#NO_DATE}
+     */
+    public void add(long day)
+    {
+        set(dayCount, day);
+    }
+    
+    /**
+     * Change the number of columns, dropping those beyond it
+     * or adding undated ones.
+     *
+     * @param count number of columns
+     */
+    public void setColumnCount(int count)
+    {
+        if (count > dayCount) {
+            set(count - 1, Document.NO_DATE);
+        }
+        else {
+            dayCount = count;
+            adjustSize();
+        }
     }
     
     public void set(int index, String date)
     {
-        set(index, parseDate(date));
+        set(index, dayOf(date));
     }
     
     public void set(int index, Date date)
     {
-        if (null == begin) begin = date;
-        if (null == end)   end   = date;
-        if (dates.size() <= index) dates.setSize(index + 1);
-        dates.set(index, date);
-        adjustSize();
+        set(index, dayOf(date));
     }
     
-    protected Date parseDate(String date)
+    /**
+     * Set the day of a column.
+     *
+     * @param index column
+     * @param day days since 1970-01-01, or {@link Document#NO_DATE}
+     */
+    public void set(int index, long day)
     {
-        try {
-            if (date != null) return dateFormat.parse(date);
+        if (Document.NO_DATE == begin) begin = day;
+        if (Document.NO_DATE == end)   end   = day;
+        if (index >= days.length) {
+            long[] grown = new long[Math.max(index + 1, days.length * 2)];
+            System.arraycopy(days, 0, grown, 0, dayCount);
+            days = grown;
         }
-        catch (java.text.ParseException e) {
-            System.err.println("Error when parsing date '" + date + "'\n" + e);
+        for (int i = dayCount; i < index; ++i) days[i] = Document.NO_DATE;
+        days[index] = day;
+        if (dayCount <= index) {
+            dayCount = index + 1;
+            adjustSize();
         }
+    }
+    
+    protected long dayOf(String date)
+    {
+        if (null == date) return Document.NO_DATE;
+        
+        long minute = Document.parseDate(date);
+        if (Document.NO_DATE == minute) System.err.println("Error when parsing date '" + date + "'");
+        
+        return Document.dayOf(minute);
+    }
+    
+    protected long dayOf(Date date)
+    {
+        java.util.Calendar calendar = java.util.Calendar.getInstance();
+        calendar.setTime(date);
         
-        return new java.util.Date();
+        return Document.epochDay(calendar.get(java.util.Calendar.YEAR),
+                                 calendar.get(java.util.Calendar.MONTH) + 1,
+                                 calendar.get(java.util.Calendar.DAY_OF_MONTH));
     }
     
     public void addActionListener(ActionListener listener)